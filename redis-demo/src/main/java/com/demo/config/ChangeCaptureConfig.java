@@ -0,0 +1,29 @@
+package com.demo.config;
+
+import com.demo.util.ChangeEventSource;
+import com.demo.util.FileChangeEventSource;
+import com.demo.util.InMemoryChangeEventSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 变更捕获配置：按cdc.source选择事件源
+ */
+@Configuration
+@ConditionalOnProperty(name = "cdc.enabled", havingValue = "true")
+public class ChangeCaptureConfig {
+
+    @Bean(destroyMethod = "close")
+    public ChangeEventSource changeEventSource(@Value("${cdc.source:file}") String source,
+                                               @Value("${cdc.file:cdc/user-changes.jsonl}") String file) {
+        if ("memory".equals(source)) {
+            return new InMemoryChangeEventSource();
+        }
+        if (!"file".equals(source)) {
+            throw new IllegalArgumentException("Unknown cdc.source '" + source + "', expected file or memory.");
+        }
+        return new FileChangeEventSource(file);
+    }
+}
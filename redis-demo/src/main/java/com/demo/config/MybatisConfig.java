@@ -0,0 +1,17 @@
+package com.demo.config;
+
+import com.demo.util.EntityInsertInterceptor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * MyBatis插件配置，Interceptor类型的bean由mybatis-plus自动注册到SqlSessionFactory
+ */
+@Configuration
+public class MybatisConfig {
+
+    @Bean
+    public EntityInsertInterceptor entityInsertInterceptor() {
+        return new EntityInsertInterceptor();
+    }
+}
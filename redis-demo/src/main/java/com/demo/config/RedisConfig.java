@@ -8,24 +8,41 @@
  */
 package com.demo.config;
 
+import com.demo.util.BinaryEntitySerializer;
+import com.demo.util.CommandBatcher;
+import com.demo.util.CompressingRedisSerializer;
+import com.demo.util.HybridRateLimiter;
 import com.demo.util.JedisUtil;
+import com.demo.util.LockReleaseListener;
+import com.demo.util.NearCache;
+import com.demo.util.NearCacheInvalidationListener;
+import com.demo.util.SoldOutListener;
+import com.demo.util.TransactionalCache;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.ShardedJedisPool;
 
 import java.text.SimpleDateFormat;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * redis配置
@@ -35,6 +52,74 @@ import java.text.SimpleDateFormat;
 @ConditionalOnClass({Jedis.class, ShardedJedisPool.class})
 public class RedisConfig {
 
+    /**
+     * 是否启用JedisUtil进程内一级缓存
+     */
+    @Value("${redis.near-cache.enabled:false}")
+    private boolean nearCacheEnabled;
+
+    /**
+     * 一级缓存最多缓存的key数量
+     */
+    @Value("${redis.near-cache.max-size:10000}")
+    private int nearCacheMaxSize;
+
+    /**
+     * 一级缓存最长存活时间（毫秒），实际取与Redis剩余TTL的较小值
+     */
+    @Value("${redis.near-cache.ttl:1000}")
+    private long nearCacheTtl;
+
+    /**
+     * 是否订阅keyevent通知，使其他节点的写入让本节点一级缓存失效
+     */
+    @Value("${redis.near-cache.invalidation.enabled:true}")
+    private boolean nearCacheInvalidationEnabled;
+
+    /**
+     * 一级缓存失效需要的notify-keyspace-events标志，启动时检查，服务端缺少时补上
+     */
+    @Value("${redis.near-cache.invalidation.notify-keyspace-events:" + NearCacheInvalidationListener.REQUIRED_EVENTS + "}")
+    private String notifyKeyspaceEvents;
+
+    /**
+     * JedisUtil批量操作每次pipeline提交的key数量
+     */
+    @Value("${redis.batch.chunk-size:100}")
+    private int batchChunkSize;
+
+    /**
+     * 按key前缀指定value序列化方式，格式：前缀=实体类名（紧凑二进制）或 前缀=json，多个用逗号分隔
+     */
+    @Value("${redis.serializer.prefixes:}")
+    private String serializerPrefixes;
+
+    /**
+     * value序列化后超过该字节数时压缩存储，不大于0则不压缩
+     */
+    @Value("${redis.compress.threshold:4096}")
+    private int compressThreshold;
+
+    /**
+     * 启用压缩的key前缀，多个用逗号分隔；与redis.serializer.prefixes中相同的前缀压缩其序列化结果，
+     * 其余前缀的value按字符串序列化后压缩。未列出的key不压缩，保证脚本与其他客户端可以直接读取
+     */
+    @Value("${redis.compress.prefixes:}")
+    private String compressPrefixes;
+
+    /**
+     * 是否开启redisTemplate的事务支持：开启后事务内的命令进入MULTI队列并占用连接直到事务结束，
+     * 缓存与数据库的一致性改由 TransactionalCache 在提交后执行
+     */
+    @Value("${redis.transaction-support.enabled:false}")
+    private boolean transactionSupportEnabled;
+
+    /**
+     * 提交后失效缓存的第二次删除延迟（毫秒），不大于0不做第二次删除
+     */
+    @Value("${redis.cache.double-delete-delay:500}")
+    private long doubleDeleteDelay;
+
     /**
      * redisTemplate配置，通过在其他bean中注入该实例来操作redis
      * @param redisConnectionFactory
@@ -51,16 +136,136 @@ public class RedisConfig {
         //RedisSerializer<Object> valueSerializer = createRedisValueSerializer();
         // 定义key的序列化方式
         //template.setKeySerializer(defaultSerializer);
-        // 定义value的序列化方式
+        // 定义value的序列化方式，大value只在按前缀启用压缩的key上压缩存储
         template.setValueSerializer(defaultSerializer);
         template.setHashValueSerializer(defaultSerializer);
         //template.setHashKeySerializer(defaultSerializer);
         template.afterPropertiesSet();
         //开户事务
-        template.setEnableTransactionSupport(true);
+        template.setEnableTransactionSupport(transactionSupportEnabled);
         JedisUtil.init(template);
+        TransactionalCache.setDoubleDeleteDelay(doubleDeleteDelay);
+        JedisUtil.setBatchSize(batchChunkSize);
+        registerPrefixSerializers();
+        if (nearCacheEnabled) {
+            JedisUtil.setNearCache(new NearCache(nearCacheMaxSize, nearCacheTtl));
+        }
         return template;
     }
+    /**
+     * 自动pipeline，合并并发调用的get/decr命令
+     * @param redisTemplate
+     * @param connections 刷写线程数（占用的连接数）
+     * @param windowMicros 合并窗口（微秒）
+     * @param maxBatchSize 每次pipeline最多合并的命令数
+     * @param timeout 调用方等待结果的最长时间（毫秒），与连接超时一致
+     * @return
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "redis.auto-pipeline.enabled", havingValue = "true")
+    public CommandBatcher commandBatcher(RedisTemplate<String, Object> redisTemplate,
+                                         @Value("${redis.auto-pipeline.connections:2}") int connections,
+                                         @Value("${redis.auto-pipeline.window-micros:50}") long windowMicros,
+                                         @Value("${redis.auto-pipeline.max-batch-size:256}") int maxBatchSize,
+                                         @Value("${spring.redis.timeout:3000}") long timeout) {
+        CommandBatcher batcher = new CommandBatcher(redisTemplate, connections, windowMicros, maxBatchSize, timeout);
+        JedisUtil.setCommandBatcher(batcher);
+        return batcher;
+    }
+
+    /**
+     * 本地预检的近似全局限流，依赖redisTemplate完成JedisUtil初始化
+     * @param redisTemplate
+     * @param syncInterval 本地计数同步到Redis的间隔（毫秒）
+     * @param maxLocalUnsynced 每个key本地未同步的最大计数
+     * @return
+     */
+    @Bean(destroyMethod = "shutdown")
+    public HybridRateLimiter hybridRateLimiter(RedisTemplate<String, Object> redisTemplate,
+                                               @Value("${redis.rate-limit.sync-interval:100}") long syncInterval,
+                                               @Value("${redis.rate-limit.max-local-unsynced:10}") long maxLocalUnsynced) {
+        return new HybridRateLimiter(syncInterval, maxLocalUnsynced);
+    }
+
+    /**
+     * 消息监听容器，订阅Redis的频道消息
+     * @param redisConnectionFactory
+     * @param redisProperties
+     * @return
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory,
+                                                                       RedisProperties redisProperties) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        // 锁释放通知，唤醒本节点等待锁的线程
+        container.addMessageListener(new LockReleaseListener(), LockReleaseListener.topic());
+        // 售罄与补货通知，同步本节点的售罄标记
+        container.addMessageListener(new SoldOutListener(), SoldOutListener.topics());
+        if (nearCacheEnabled && nearCacheInvalidationEnabled) {
+            NearCacheInvalidationListener.ensureNotifications(redisConnectionFactory, notifyKeyspaceEvents);
+            container.addMessageListener(new NearCacheInvalidationListener(),
+                    NearCacheInvalidationListener.topic(redisProperties.getDatabase()));
+        }
+        return container;
+    }
+
+    /**
+     * 按配置为key前缀注册value序列化方式
+     */
+    private void registerPrefixSerializers() {
+        Set<String> compressed = new LinkedHashSet<String>();
+        for (String prefix : StringUtils.commaDelimitedListToStringArray(compressPrefixes)) {
+            if (StringUtils.hasText(prefix)) {
+                compressed.add(prefix.trim());
+            }
+        }
+        for (String mapping : StringUtils.commaDelimitedListToStringArray(serializerPrefixes)) {
+            if (!StringUtils.hasText(mapping)) {
+                continue;
+            }
+            String[] pair = StringUtils.split(mapping.trim(), "=");
+            if (pair == null || !StringUtils.hasText(pair[0]) || !StringUtils.hasText(pair[1])) {
+                throw new BeanInitializationException("redis.serializer.prefixes: malformed entry '" + mapping
+                        + "', expected prefix=class or prefix=json");
+            }
+            String prefix = pair[0].trim();
+            String type = pair[1].trim();
+            RedisSerializer<?> serializer;
+            if ("json".equals(type)) {
+                serializer = createRedisValueSerializer();
+            } else {
+                try {
+                    Class<?> entityClass = ClassUtils.forName(type, RedisConfig.class.getClassLoader());
+                    serializer = binarySerializer(entityClass);
+                } catch (ClassNotFoundException e) {
+                    throw new BeanInitializationException("redis.serializer.prefixes: class not found " + type, e);
+                }
+            }
+            JedisUtil.registerSerializer(prefix, compressed.remove(prefix) ? compressing(serializer) : serializer);
+        }
+        for (String prefix : compressed) {
+            JedisUtil.registerSerializer(prefix, compressing(new StringRedisSerializer()));
+        }
+    }
+
+    private static <T> BinaryEntitySerializer<T> binarySerializer(Class<T> entityClass) {
+        return new BinaryEntitySerializer<T>(entityClass);
+    }
+
+    /**
+     * 按配置的阈值包装压缩
+     * @param serializer
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<?> compressing(RedisSerializer<?> serializer) {
+        if (compressThreshold <= 0) {
+            return serializer;
+        }
+        return new CompressingRedisSerializer<Object>((RedisSerializer<Object>) serializer, compressThreshold);
+    }
+
     /**
      * 创建RedisSerializer
      * @return
@@ -2,12 +2,20 @@ package com.demo.controller;
 
 import java.util.concurrent.TimeUnit;
 
+import com.demo.entity.Reservation;
+import com.demo.entity.ReservationStatus;
+import com.demo.service.InventoryService;
 import com.demo.service.UserService;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import com.demo.util.CoalescingRedisLock;
+import com.demo.util.HybridRateLimiter;
 import com.demo.util.JedisUtil;
+import com.demo.util.RateLimit;
+import com.demo.util.RateLimitResult;
+import com.demo.util.RateLimiter;
 
 import javax.annotation.Resource;
 
@@ -17,6 +25,17 @@ public class UserController {
     @Resource
     private UserService userService;
 
+    @Resource
+    private InventoryService inventoryService;
+
+    @Resource
+    private HybridRateLimiter hybridRateLimiter;
+
+    /**
+     * 本节点的线程共用一次Redis加锁，最多连续移交10次
+     */
+    private final CoalescingRedisLock seckillLock = new CoalescingRedisLock(5000, 10);
+
     /**
      * 测试把数据设置到缓存
      *
@@ -57,13 +76,21 @@ public class UserController {
     @RequestMapping("/test2")
     @ResponseBody
     public String test2(String name) {
-        String key = "15915839500";
-        Object object = JedisUtil.get(key);
-        if (object == null) {
-            Long incr = JedisUtil.incr(key, 60, TimeUnit.SECONDS);
+        String phone = "15915839500";
+        // 短信网关总量每分钟1000条，远离上限时只在本地计数
+        if (!hybridRateLimiter.tryAcquire(RateLimit.fixedWindow("sms:gateway", 1000, 1, TimeUnit.MINUTES), 1).isAllowed()) {
+            return "短信服务繁忙，请稍后再试！";
+        }
+        // 每分钟1次且每天最多10次，一次脚本调用完成检查与计数
+        RateLimitResult result = RateLimiter.tryAcquire(
+                RateLimit.slidingLog("sms:" + phone, 1, 60, TimeUnit.SECONDS),
+                RateLimit.fixedWindow("sms:daily:" + phone, 10, 1, TimeUnit.DAYS));
+        if (result.isAllowed()) {
             return "验收码发送成功";
+        } else if (result.getRetryAfterMillis() > TimeUnit.MINUTES.toMillis(1)) {
+            return "今天发送验证码的次数已用完，请明天再试！";
         } else {
-            Long expire = JedisUtil.getExpire(key);
+            long expire = TimeUnit.MILLISECONDS.toSeconds(result.getRetryAfterMillis() + 999);
             return "一分钟内只能发送一次验证码，请在" + expire + "秒后再点击发送！";
         }
     }
@@ -78,19 +105,24 @@ public class UserController {
     @ResponseBody
     public String test3(String name) {
         final String key = "iPhone X";
-        JedisUtil.set(key, "9");
+        inventoryService.setStock(key, 9);
         for (int i = 0; i < 500; i++) {
             new Thread(new Runnable() {
 
                 @Override
                 public void run() {
-                    Long decr = JedisUtil.decr(key);
-                    if (decr < 0) {
-                        // 告诉用户已经抢完了
-                        System.out.println(Thread.currentThread().getName() + "：" + key + "已经被抢购完！");
+                    String threadName = Thread.currentThread().getName();
+                    // 检查库存、限购并扣减，一次脚本调用完成，不会超卖
+                    Reservation reservation = inventoryService.reserve(key, threadName, 1);
+                    if (reservation.isSuccess()) {
+                        //恭喜用户抢到了，支付后确认订单，超时未支付则回滚
+                        System.out.println(threadName + "：抢到了" + key);
+                        inventoryService.confirm(key, reservation.getOrderToken());
+                    } else if (reservation.getStatus() == ReservationStatus.BUSY) {
+                        System.out.println(threadName + "：活动太火爆，请稍后再试！");
                     } else {
-                        //恭喜用户抢到了
-                        System.out.println(Thread.currentThread().getName() + "：抢到了" + key);
+                        // 告诉用户已经抢完了
+                        System.out.println(threadName + "：" + key + "已经被抢购完！");
                     }
                 }
             }).start();
@@ -108,27 +140,25 @@ public class UserController {
     @ResponseBody
     public String test4(String name) {
         final String key = "iPhone XX";
-        final long expire = 5000;
         for (int i = 0; i < 3; i++) {
             new Thread(new Runnable() {
 
                 @Override
                 public void run() {
-                    for (int i = 0; i < 6; i++) {
-                        String threadName = Thread.currentThread().getName();
-                        // 分布锁
-                        boolean b = JedisUtil.retryLock(key, expire);
-                        if (b) {
-                            System.out.println(threadName + "：抢到了锁参与秒杀了！");
-                            return;
-                        }
-                        try {
-                            System.out.println(threadName + "：没抢到了锁，将进行下一次抢锁！");
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
+                    String threadName = Thread.currentThread().getName();
+                    // 分布锁，最多等待6秒，本节点的线程在本地排队，锁在本地线程间直接移交
+                    try {
+                        if (seckillLock.tryLock(key, 6000)) {
+                            try {
+                                System.out.println(threadName + "：抢到了锁参与秒杀了！");
+                            } finally {
+                                seckillLock.unlock(key);
+                            }
+                        } else {
+                            System.out.println(threadName + "：没抢到锁！");
                         }
-
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
                     }
                 }
             }).start();
@@ -0,0 +1,28 @@
+package com.demo.entity;
+
+import lombok.Data;
+
+import java.util.Map;
+
+
+@Data
+public class ChangeEvent {
+    /**
+     * 变更在日志中的位置，按提交顺序单调递增
+     */
+    private Long position;
+    private String table;
+    private ChangeType type;
+    /**
+     * 数据库提交时间（毫秒），用于计算同步延迟
+     */
+    private Long timestamp;
+    /**
+     * 变更前的行，INSERT时为空
+     */
+    private Map<String, Object> before;
+    /**
+     * 变更后的行，DELETE时为空
+     */
+    private Map<String, Object> after;
+}
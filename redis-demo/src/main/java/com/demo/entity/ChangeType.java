@@ -0,0 +1,10 @@
+package com.demo.entity;
+
+/**
+ * 行变更类型
+ */
+public enum ChangeType {
+    INSERT,
+    UPDATE,
+    DELETE
+}
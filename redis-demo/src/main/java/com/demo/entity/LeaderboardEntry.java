@@ -0,0 +1,15 @@
+package com.demo.entity;
+
+import lombok.Data;
+
+
+@Data
+public class LeaderboardEntry {
+    private Integer userId;
+    /**
+     * 名次，从1开始
+     */
+    private Long rank;
+    private Double score;
+    private UserEntity user;
+}
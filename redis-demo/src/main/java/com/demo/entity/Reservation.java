@@ -0,0 +1,24 @@
+package com.demo.entity;
+
+import lombok.Data;
+
+
+@Data
+public class Reservation {
+    private String sku;
+    private String userId;
+    private Integer quantity;
+    /**
+     * 订单token，确认或回滚时使用
+     */
+    private String orderToken;
+    private ReservationStatus status;
+    /**
+     * 脚本执行后的剩余库存，开启本地令牌时为本节点剩余令牌数
+     */
+    private Long remaining;
+
+    public boolean isSuccess() {
+        return status == ReservationStatus.SUCCESS;
+    }
+}
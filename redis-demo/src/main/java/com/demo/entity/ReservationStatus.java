@@ -0,0 +1,31 @@
+package com.demo.entity;
+
+/**
+ * 预占库存的结果
+ */
+public enum ReservationStatus {
+    /**
+     * 预占成功，等待确认或回滚
+     */
+    SUCCESS,
+    /**
+     * 库存不足
+     */
+    SOLD_OUT,
+    /**
+     * 超过每人限购数量
+     */
+    LIMIT_EXCEEDED,
+    /**
+     * 商品未设置库存
+     */
+    NOT_ON_SALE,
+    /**
+     * 订单token已存在
+     */
+    DUPLICATE,
+    /**
+     * 同时进行的预占过多，请求被拒绝
+     */
+    BUSY
+}
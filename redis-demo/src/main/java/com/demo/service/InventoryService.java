@@ -0,0 +1,47 @@
+package com.demo.service;
+
+import com.demo.entity.Reservation;
+
+/**
+ * 秒杀库存：预占、确认、回滚均为一次脚本调用，不会超卖
+ */
+public interface InventoryService {
+    /**
+     * 设置库存
+     */
+    void setStock(String sku, long stock);
+
+    /**
+     * 补货，清除所有节点的售罄标记
+     *
+     * @return 补货后的库存
+     */
+    Long restock(String sku, long quantity);
+
+    /**
+     * 查询剩余库存，未设置时返回null
+     */
+    Long getStock(String sku);
+
+    /**
+     * 预占库存：检查库存与每人限购数量、扣减库存并记录订单token
+     */
+    Reservation reserve(String sku, String userId, int quantity);
+
+    /**
+     * 确认已支付的订单，订单不存在或已处理时返回false
+     */
+    boolean confirm(String sku, String orderToken);
+
+    /**
+     * 回滚未支付的订单，归还库存与限购额度，订单不存在或已处理时返回false
+     */
+    boolean rollback(String sku, String orderToken);
+
+    /**
+     * 回滚预占超过timeoutMillis仍未确认的订单
+     *
+     * @return 回滚的订单数
+     */
+    int rollbackExpired(String sku, long timeoutMillis);
+}
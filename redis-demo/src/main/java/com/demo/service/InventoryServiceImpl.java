@@ -0,0 +1,355 @@
+package com.demo.service;
+
+import com.demo.entity.Reservation;
+import com.demo.entity.ReservationStatus;
+import com.demo.util.AdmissionLimiter;
+import com.demo.util.JedisUtil;
+import com.demo.util.SoldOutFlags;
+import com.demo.util.StockTokenPool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 秒杀库存
+ * <p>
+ * 每个商品有四个key，使用相同的hash tag以便在集群中落在同一个slot：
+ * 库存计数器、每人已购数量hash、待支付订单hash（token -> 数量:用户）以及按预占时间排序的待支付订单有序集合。
+ * 另有库存版本计数器，每次重新设置库存时递增，本地令牌按版本归还。
+ * 库存不足或超过限购时脚本直接返回，计数器不会被扣成负数。
+ * <p>
+ * 开启本地令牌后库存由各节点按块租用，预占先扣本地令牌，售罄的请求不访问Redis；
+ * 扣到令牌后脚本只检查限购并记录订单，回滚的库存归还Redis，售罄的节点在recheck间隔后可以重新租到。
+ * <p>
+ * 库存扣完后标记售罄并通知所有节点，之后的预占直接返回售罄，补货或回滚时清除标记；
+ * 配置准入上限后，同时进行的预占超过上限直接返回繁忙。
+ */
+@Service
+@DependsOn("redisTemplate")
+public class InventoryServiceImpl implements InventoryService {
+
+    private static final String KEY_PREFIX = "inventory:{";
+
+    /**
+     * 每次回滚超时订单的最大数量
+     */
+    private static final int EXPIRE_BATCH = 100;
+
+    /**
+     * 回滚一个待支付订单，KEYS同预占脚本
+     */
+    private static final String ROLLBACK_FUNCTION = "local function rollback(token) "
+            + "  local order = redis.call('hget', KEYS[3], token) "
+            + "  if order == false then return 0 end "
+            + "  local sep = string.find(order, ':', 1, true) "
+            + "  local quantity = tonumber(string.sub(order, 1, sep - 1)) "
+            + "  local user = string.sub(order, sep + 1) "
+            + "  redis.call('hdel', KEYS[3], token) "
+            + "  redis.call('zrem', KEYS[4], token) "
+            + "  redis.call('incrby', KEYS[1], quantity) "
+            + "  if redis.call('hincrby', KEYS[2], user, -quantity) <= 0 then "
+            + "    redis.call('hdel', KEYS[2], user) "
+            + "  end "
+            + "  return 1 "
+            + "end ";
+
+    /**
+     * KEYS：库存、已购、待支付订单、待支付时间；ARGV：用户、数量、每人限购（不大于0不限）、token、当前时间、
+     * 库存是否已从本地令牌扣减（1是，不再检查与扣减库存）
+     * 返回{状态码, 剩余库存}：1成功，0库存不足，-1超过限购，-2未设置库存，-3 token已存在
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> RESERVE_SCRIPT = new DefaultRedisScript<List>(
+            "local leased = ARGV[6] == '1' "
+                    + "local stock = redis.call('get', KEYS[1]) "
+                    + "if stock == false and not leased then return {-2, 0} end "
+                    + "stock = tonumber(stock or '0') "
+                    + "if redis.call('hexists', KEYS[3], ARGV[4]) == 1 then return {-3, stock} end "
+                    + "local quantity = tonumber(ARGV[2]) "
+                    + "if not leased and stock < quantity then return {0, stock} end "
+                    + "local limit = tonumber(ARGV[3]) "
+                    + "if limit > 0 and tonumber(redis.call('hget', KEYS[2], ARGV[1]) or '0') + quantity > limit then "
+                    + "  return {-1, stock} "
+                    + "end "
+                    + "if not leased then stock = redis.call('decrby', KEYS[1], quantity) end "
+                    + "redis.call('hincrby', KEYS[2], ARGV[1], quantity) "
+                    + "redis.call('hset', KEYS[3], ARGV[4], ARGV[2] .. ':' .. ARGV[1]) "
+                    + "redis.call('zadd', KEYS[4], ARGV[5], ARGV[4]) "
+                    + "return {1, stock}", List.class);
+
+    /**
+     * KEYS：库存、库存版本；ARGV[1]：库存。重新设置库存并递增版本，旧版本租出的令牌不能再归还
+     */
+    private static final RedisScript<Long> SET_STOCK_SCRIPT = new DefaultRedisScript<Long>(
+            "redis.call('set', KEYS[1], ARGV[1]) "
+                    + "return redis.call('incr', KEYS[2])", Long.class);
+
+    /**
+     * KEYS[1]：库存；ARGV[1]：补货数量。返回补货后的库存
+     */
+    private static final RedisScript<Long> RESTOCK_SCRIPT = new DefaultRedisScript<Long>(
+            "return redis.call('incrby', KEYS[1], ARGV[1])", Long.class);
+
+    /**
+     * KEYS同预占脚本；ARGV：token
+     */
+    private static final RedisScript<Long> CONFIRM_SCRIPT = new DefaultRedisScript<Long>(
+            "if redis.call('hdel', KEYS[3], ARGV[1]) == 0 then return 0 end "
+                    + "redis.call('zrem', KEYS[4], ARGV[1]) "
+                    + "return 1", Long.class);
+
+    /**
+     * KEYS同预占脚本；ARGV：token
+     */
+    private static final RedisScript<Long> ROLLBACK_SCRIPT = new DefaultRedisScript<Long>(
+            ROLLBACK_FUNCTION + "return rollback(ARGV[1])", Long.class);
+
+    /**
+     * KEYS同预占脚本；ARGV：截止时间、最大数量
+     */
+    private static final RedisScript<Long> ROLLBACK_EXPIRED_SCRIPT = new DefaultRedisScript<Long>(
+            ROLLBACK_FUNCTION
+                    + "local tokens = redis.call('zrangebyscore', KEYS[4], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2])) "
+                    + "local count = 0 "
+                    + "for _, token in ipairs(tokens) do "
+                    + "  count = count + rollback(token) "
+                    + "end "
+                    + "return count", Long.class);
+
+    /**
+     * 每人限购数量，不大于0不限
+     */
+    @Value("${inventory.per-user-limit:1}")
+    private int perUserLimit;
+
+    /**
+     * 是否开启本地库存令牌
+     */
+    @Value("${inventory.local-tokens.enabled:false}")
+    private boolean localTokensEnabled;
+
+    /**
+     * 每次从Redis租用的令牌数
+     */
+    @Value("${inventory.local-tokens.block-size:10}")
+    private int localTokensBlockSize;
+
+    /**
+     * 空闲多久后把剩余令牌归还Redis（毫秒）
+     */
+    @Value("${inventory.local-tokens.idle-return:5000}")
+    private long localTokensIdleReturn;
+
+    /**
+     * 售罄后多久再去Redis确认（毫秒）
+     */
+    @Value("${inventory.local-tokens.sold-out-recheck:1000}")
+    private long localTokensSoldOutRecheck;
+
+    /**
+     * 同时进行的预占数上限，不大于0不限
+     */
+    @Value("${inventory.admission.max-concurrent:0}")
+    private int admissionMaxConcurrent;
+
+    /**
+     * 达到上限时的最长等待时间（毫秒）
+     */
+    @Value("${inventory.admission.wait:0}")
+    private long admissionWait;
+
+    /**
+     * 售罄标记的保留时间（毫秒），过期后重新访问Redis确认
+     */
+    @Value("${inventory.sold-out.ttl:1000}")
+    private long soldOutTtl;
+
+    private StockTokenPool tokenPool;
+
+    private AdmissionLimiter admissionLimiter;
+
+    @PostConstruct
+    public void init() {
+        SoldOutFlags.setTtl(soldOutTtl);
+        if (localTokensEnabled) {
+            tokenPool = new StockTokenPool(localTokensBlockSize, localTokensIdleReturn, localTokensSoldOutRecheck);
+        }
+        if (admissionMaxConcurrent > 0) {
+            admissionLimiter = new AdmissionLimiter(admissionMaxConcurrent, admissionWait);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // 通过JedisUtil归还本地令牌，@DependsOn保证redisTemplate及连接工厂在此之后销毁
+        if (tokenPool != null) {
+            tokenPool.shutdown();
+        }
+    }
+
+    @Override
+    public void setStock(String sku, long stock) {
+        Assert.hasText(sku, "Parameter 'sku' must not be empty.");
+        JedisUtil.eval(SET_STOCK_SCRIPT, Arrays.asList(stockKey(sku), StockTokenPool.epochKey(stockKey(sku))), stock);
+        if (tokenPool != null) {
+            tokenPool.reset(stockKey(sku));
+        }
+        if (stock > 0) {
+            SoldOutFlags.restock(stockKey(sku));
+        }
+    }
+
+    @Override
+    public Long restock(String sku, long quantity) {
+        Assert.hasText(sku, "Parameter 'sku' must not be empty.");
+        Assert.isTrue(quantity > 0, "Parameter 'quantity' must be positive.");
+        Long stock = JedisUtil.eval(RESTOCK_SCRIPT, Collections.singletonList(stockKey(sku)), quantity);
+        SoldOutFlags.restock(stockKey(sku));
+        return stock;
+    }
+
+    @Override
+    public Long getStock(String sku) {
+        Object stock = JedisUtil.get(stockKey(sku));
+        return stock == null ? null : Long.valueOf(stock.toString());
+    }
+
+    @Override
+    public Reservation reserve(String sku, String userId, int quantity) {
+        Assert.hasText(sku, "Parameter 'sku' must not be empty.");
+        Assert.hasText(userId, "Parameter 'userId' must not be empty.");
+        Assert.isTrue(quantity > 0, "Parameter 'quantity' must be positive.");
+        Reservation reservation = new Reservation();
+        reservation.setSku(sku);
+        reservation.setUserId(userId);
+        reservation.setQuantity(quantity);
+        String stockKey = stockKey(sku);
+        // 已售罄且本地没有足够令牌时不访问Redis
+        if (SoldOutFlags.isSoldOut(stockKey) && (tokenPool == null || tokenPool.available(stockKey) < quantity)) {
+            reservation.setStatus(ReservationStatus.SOLD_OUT);
+            reservation.setRemaining(0L);
+            return reservation;
+        }
+        if (admissionLimiter != null && !admissionLimiter.tryAcquire()) {
+            reservation.setStatus(ReservationStatus.BUSY);
+            return reservation;
+        }
+        try {
+            return doReserve(reservation, stockKey);
+        } finally {
+            if (admissionLimiter != null) {
+                admissionLimiter.release();
+            }
+        }
+    }
+
+    private Reservation doReserve(Reservation reservation, String stockKey) {
+        int quantity = reservation.getQuantity();
+        boolean leased = tokenPool != null;
+        if (leased) {
+            int acquired = tokenPool.tryAcquire(stockKey, quantity);
+            if (acquired == StockTokenPool.NOT_ON_SALE) {
+                reservation.setStatus(ReservationStatus.NOT_ON_SALE);
+                return reservation;
+            }
+            if (acquired != StockTokenPool.ACQUIRED) {
+                SoldOutFlags.markSoldOut(stockKey);
+                reservation.setStatus(ReservationStatus.SOLD_OUT);
+                reservation.setRemaining(0L);
+                return reservation;
+            }
+        }
+        String token = UUID.randomUUID().toString();
+        List<?> result;
+        try {
+            result = JedisUtil.eval(RESERVE_SCRIPT, keys(reservation.getSku()), reservation.getUserId(), quantity,
+                    perUserLimit, token, System.currentTimeMillis(), leased ? 1 : 0);
+        } catch (RuntimeException e) {
+            if (leased) {
+                tokenPool.release(stockKey, quantity);
+            }
+            throw e;
+        }
+        reservation.setStatus(toStatus(((Number) result.get(0)).intValue()));
+        if (reservation.isSuccess()) {
+            reservation.setOrderToken(token);
+        } else if (leased) {
+            tokenPool.release(stockKey, quantity);
+        }
+        if (leased) {
+            reservation.setRemaining(tokenPool.available(stockKey));
+        } else {
+            reservation.setRemaining(((Number) result.get(1)).longValue());
+            if (reservation.getStatus() == ReservationStatus.SOLD_OUT
+                    || (reservation.isSuccess() && reservation.getRemaining() <= 0)) {
+                SoldOutFlags.markSoldOut(stockKey);
+            }
+        }
+        return reservation;
+    }
+
+    @Override
+    public boolean confirm(String sku, String orderToken) {
+        Assert.hasText(orderToken, "Parameter 'orderToken' must not be empty.");
+        return JedisUtil.eval(CONFIRM_SCRIPT, keys(sku), orderToken) > 0;
+    }
+
+    @Override
+    public boolean rollback(String sku, String orderToken) {
+        Assert.hasText(orderToken, "Parameter 'orderToken' must not be empty.");
+        if (JedisUtil.eval(ROLLBACK_SCRIPT, keys(sku), orderToken) <= 0) {
+            return false;
+        }
+        SoldOutFlags.restock(stockKey(sku));
+        return true;
+    }
+
+    @Override
+    public int rollbackExpired(String sku, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() - timeoutMillis;
+        int total = 0;
+        long count;
+        do {
+            count = JedisUtil.eval(ROLLBACK_EXPIRED_SCRIPT, keys(sku), deadline, EXPIRE_BATCH);
+            total += count;
+        } while (count >= EXPIRE_BATCH);
+        if (total > 0) {
+            SoldOutFlags.restock(stockKey(sku));
+        }
+        return total;
+    }
+
+    private static ReservationStatus toStatus(int code) {
+        switch (code) {
+            case 1:
+                return ReservationStatus.SUCCESS;
+            case 0:
+                return ReservationStatus.SOLD_OUT;
+            case -1:
+                return ReservationStatus.LIMIT_EXCEEDED;
+            case -2:
+                return ReservationStatus.NOT_ON_SALE;
+            default:
+                return ReservationStatus.DUPLICATE;
+        }
+    }
+
+    static String stockKey(String sku) {
+        return KEY_PREFIX + sku + "}:stock";
+    }
+
+    private static List<String> keys(String sku) {
+        String prefix = KEY_PREFIX + sku + "}:";
+        return Arrays.asList(prefix + "stock", prefix + "bought", prefix + "orders", prefix + "pending");
+    }
+}
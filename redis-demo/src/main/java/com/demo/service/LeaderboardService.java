@@ -0,0 +1,51 @@
+package com.demo.service;
+
+import com.demo.entity.LeaderboardEntry;
+import com.demo.entity.UserEntity;
+
+import java.util.List;
+
+/**
+ * 排行榜：有序集合只存用户ID，用户信息存放在hash中按需批量获取
+ */
+public interface LeaderboardService {
+    /**
+     * 保存排行榜展示用的用户信息
+     */
+    void saveUser(UserEntity user);
+
+    /**
+     * 增加分数，同时计入总榜与当前小时/天/周的窗口榜
+     */
+    void incrementScore(String board, Integer userId, double delta);
+
+    /**
+     * 分页查询总榜前N名，page从1开始
+     */
+    List<LeaderboardEntry> top(String board, int page, int size);
+
+    /**
+     * 分页查询窗口榜前N名，page从1开始
+     */
+    List<LeaderboardEntry> top(String board, LeaderboardWindow window, int page, int size);
+
+    /**
+     * 查询用户在总榜的名次，未上榜返回null
+     */
+    LeaderboardEntry rank(String board, Integer userId);
+
+    /**
+     * 查询用户在窗口榜的名次，未上榜返回null
+     */
+    LeaderboardEntry rank(String board, LeaderboardWindow window, Integer userId);
+
+    /**
+     * 查询总榜中用户及其前后各radius名，未上榜返回空列表
+     */
+    List<LeaderboardEntry> around(String board, Integer userId, int radius);
+
+    /**
+     * 查询窗口榜中用户及其前后各radius名，未上榜返回空列表
+     */
+    List<LeaderboardEntry> around(String board, LeaderboardWindow window, Integer userId, int radius);
+}
@@ -0,0 +1,404 @@
+package com.demo.service;
+
+import com.alibaba.fastjson.JSON;
+import com.demo.entity.LeaderboardEntry;
+import com.demo.entity.UserEntity;
+import com.demo.util.JedisUtil;
+import com.demo.util.ScoreBuffer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排行榜
+ * <p>
+ * 有序集合成员为用户ID，查询按名次区间取，复杂度为O(log N + 页大小)；
+ * 用户信息以JSON存放在 leaderboard_user hash中，一页只需一次hmget。
+ * <p>
+ * 写入同时计入总榜与当前小时榜，配置分片后按用户ID散列到多个子榜，避免单个热点key。
+ * 天榜由小时榜、周榜由天榜通过ZUNIONSTORE增量合并：已结束的时段合并结果长期缓存，
+ * 进行中的时段只缓存很短的时间，读取时只需重新合并少量key。
+ * <p>
+ * 开启写缓冲后加分先在本地累加，按间隔批量写入，热门用户的大量点赞只产生少量ZINCRBY。
+ */
+@Service
+@DependsOn("redisTemplate")
+public class LeaderboardServiceImpl implements LeaderboardService {
+
+    private static final String BOARD_KEY_PREFIX = "leaderboard:";
+
+    /**
+     * 排行榜展示用的用户信息hash，field为用户ID
+     */
+    static final String USER_KEY = "leaderboard_user";
+
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHH");
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    /**
+     * 小时榜的保留时间，需覆盖一整周以便合并周榜
+     */
+    private static final long HOUR_BOARD_TTL = TimeUnit.DAYS.toMillis(8);
+
+    /**
+     * 已结束时段合并结果的缓存时间
+     */
+    private static final long CLOSED_VIEW_TTL = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * 写缓冲批次的生效标记，防止重试时重复加分
+     */
+    private static final String FLUSH_KEY_PREFIX = "leaderboard:flush:";
+
+    /**
+     * 批次生效标记的保留时间
+     */
+    private static final long FLUSH_MARK_TTL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * 子榜数量，1表示不分片
+     */
+    @Value("${leaderboard.shards:1}")
+    private int shards;
+
+    /**
+     * 进行中时段合并结果的缓存时间（毫秒）
+     */
+    @Value("${leaderboard.merge-ttl:5000}")
+    private long mergeTtl;
+
+    /**
+     * 是否开启加分写缓冲
+     */
+    @Value("${leaderboard.write-behind.enabled:false}")
+    private boolean writeBehindEnabled;
+
+    /**
+     * 写缓冲刷写间隔（毫秒），即榜单的最大延迟
+     */
+    @Value("${leaderboard.write-behind.flush-interval:1000}")
+    private long writeBehindFlushInterval;
+
+    /**
+     * 写缓冲累积的成员数达到该值时立即刷写
+     */
+    @Value("${leaderboard.write-behind.max-pending:10000}")
+    private int writeBehindMaxPending;
+
+    private ScoreBuffer scoreBuffer;
+
+    @PostConstruct
+    public void init() {
+        if (writeBehindEnabled) {
+            scoreBuffer = new ScoreBuffer(new ScoreBuffer.Sink() {
+                @Override
+                public void write(String batchId, long createdAt, Map<String, Map<Object, Double>> deltas) {
+                    writeDeltas(deltas, LocalDateTime.ofInstant(Instant.ofEpochMilli(createdAt), ZoneId.systemDefault()),
+                            batchId);
+                }
+            }, writeBehindFlushInterval, writeBehindMaxPending);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // 通过JedisUtil写入剩余增量，@DependsOn保证redisTemplate及连接工厂在此之后销毁
+        if (scoreBuffer != null) {
+            scoreBuffer.shutdown();
+        }
+    }
+
+    @Override
+    public void saveUser(UserEntity user) {
+        Assert.notNull(user.getId(), "Parameter 'user.id' must not be null.");
+        JedisUtil.hset(USER_KEY, user.getId().toString(), JSON.toJSONString(user));
+    }
+
+    @Override
+    public void incrementScore(String board, Integer userId, double delta) {
+        if (scoreBuffer != null) {
+            scoreBuffer.add(board, userId, delta);
+            return;
+        }
+        Map<Object, Double> members = new HashMap<Object, Double>();
+        members.put(userId, delta);
+        writeDeltas(Collections.singletonMap(board, members), LocalDateTime.now(), null);
+    }
+
+    /**
+     * 写入多个榜单的加分，计入time所在的小时；写缓冲的批次通过脚本以批次ID标记，重试时只生效一次
+     */
+    private void writeDeltas(Map<String, Map<Object, Double>> boardDeltas, LocalDateTime time, String batchId) {
+        Map<String, Map<Object, Double>> deltas = new HashMap<String, Map<Object, Double>>();
+        Map<String, Long> expireMillis = new HashMap<String, Long>();
+        for (Map.Entry<String, Map<Object, Double>> board : boardDeltas.entrySet()) {
+            for (Map.Entry<Object, Double> member : board.getValue().entrySet()) {
+                collectDeltas(board.getKey(), (Integer) member.getKey(), member.getValue(), time, deltas, expireMillis);
+            }
+        }
+        if (batchId == null) {
+            JedisUtil.incrementScores(deltas, expireMillis);
+        } else {
+            JedisUtil.incrementScoresOnce(FLUSH_KEY_PREFIX + batchId, FLUSH_MARK_TTL, deltas, expireMillis);
+        }
+    }
+
+    @Override
+    public List<LeaderboardEntry> top(String board, int page, int size) {
+        return top(board, LeaderboardWindow.ALL, page, size);
+    }
+
+    @Override
+    public List<LeaderboardEntry> top(String board, LeaderboardWindow window, int page, int size) {
+        Assert.isTrue(page > 0 && size > 0, "Parameter 'page' and 'size' must be positive.");
+        long start = (long) (page - 1) * size;
+        return range(viewKey(board, window), start, start + size - 1);
+    }
+
+    @Override
+    public LeaderboardEntry rank(String board, Integer userId) {
+        return rank(board, LeaderboardWindow.ALL, userId);
+    }
+
+    @Override
+    public LeaderboardEntry rank(String board, LeaderboardWindow window, Integer userId) {
+        String key = viewKey(board, window);
+        Long rank = JedisUtil.zReverseRank(key, userId.toString());
+        if (rank == null) {
+            return null;
+        }
+        LeaderboardEntry entry = new LeaderboardEntry();
+        entry.setUserId(userId);
+        entry.setRank(rank + 1);
+        entry.setScore(JedisUtil.zScore(key, userId.toString()));
+        hydrate(Collections.singletonList(entry));
+        return entry;
+    }
+
+    @Override
+    public List<LeaderboardEntry> around(String board, Integer userId, int radius) {
+        return around(board, LeaderboardWindow.ALL, userId, radius);
+    }
+
+    @Override
+    public List<LeaderboardEntry> around(String board, LeaderboardWindow window, Integer userId, int radius) {
+        String key = viewKey(board, window);
+        Long rank = JedisUtil.zReverseRank(key, userId.toString());
+        if (rank == null) {
+            return Collections.emptyList();
+        }
+        return range(key, Math.max(0, rank - radius), rank + radius);
+    }
+
+    /**
+     * 计算一次加分需要写入的子榜：总榜与当前小时榜，分片时写入用户所在的分片
+     */
+    private void collectDeltas(String board, Integer userId, double delta, LocalDateTime time,
+                       Map<String, Map<Object, Double>> deltas, Map<String, Long> expireMillis) {
+        String member = userId.toString();
+        String hourKey = hourKey(board, time) + shardSuffix(userId);
+        addDelta(deltas, totalKey(board, userId), member, delta);
+        addDelta(deltas, hourKey, member, delta);
+        expireMillis.put(hourKey, HOUR_BOARD_TTL);
+    }
+
+    private static void addDelta(Map<String, Map<Object, Double>> deltas, String key, Object member, double delta) {
+        Map<Object, Double> members = deltas.get(key);
+        if (members == null) {
+            members = new HashMap<Object, Double>();
+            deltas.put(key, members);
+        }
+        Double current = members.get(member);
+        members.put(member, current == null ? delta : current + delta);
+    }
+
+    /**
+     * 取名次区间[start, end]（从0开始）并补全用户信息
+     */
+    private List<LeaderboardEntry> range(String key, long start, long end) {
+        Set<ZSetOperations.TypedTuple<Object>> tuples = JedisUtil.zReverseRangeWithScores(key, start, end);
+        List<LeaderboardEntry> entries = new ArrayList<LeaderboardEntry>(tuples.size());
+        long rank = start;
+        for (ZSetOperations.TypedTuple<Object> tuple : tuples) {
+            LeaderboardEntry entry = new LeaderboardEntry();
+            entry.setUserId(Integer.valueOf(tuple.getValue().toString()));
+            entry.setRank(++rank);
+            entry.setScore(tuple.getScore());
+            entries.add(entry);
+        }
+        hydrate(entries);
+        return entries;
+    }
+
+    /**
+     * 一次hmget批量补全用户信息
+     */
+    private void hydrate(List<LeaderboardEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<Object> userIds = new ArrayList<Object>(entries.size());
+        for (LeaderboardEntry entry : entries) {
+            userIds.add(entry.getUserId().toString());
+        }
+        List<Object> users = JedisUtil.hmget(USER_KEY, userIds);
+        for (int i = 0; i < entries.size(); i++) {
+            Object json = users.get(i);
+            if (json != null) {
+                entries.get(i).setUser(JSON.parseObject(json.toString(), UserEntity.class));
+            }
+        }
+    }
+
+    /**
+     * 获取可直接查询的榜单key，需要合并的视图在缓存失效时重新合并
+     */
+    private String viewKey(String board, LeaderboardWindow window) {
+        LocalDateTime now = LocalDateTime.now();
+        View view;
+        switch (window) {
+            case HOUR:
+                view = hourView(board, now, false);
+                break;
+            case DAY:
+                view = dayView(board, now.toLocalDate(), now);
+                break;
+            case WEEK:
+                view = weekView(board, now);
+                break;
+            default:
+                view = shardedView(boardKey(board), mergeTtl);
+                break;
+        }
+        if (view.children == null || JedisUtil.existKey(view.key)) {
+            return view.key;
+        }
+        List<String> mergedKeys = new ArrayList<String>();
+        collectMergedKeys(view, mergedKeys);
+        build(view, JedisUtil.existKeys(mergedKeys));
+        return view.key;
+    }
+
+    private View hourView(String board, LocalDateTime hour, boolean closed) {
+        return shardedView(hourKey(board, hour), closed ? CLOSED_VIEW_TTL : mergeTtl);
+    }
+
+    /**
+     * 天榜：合并当天已经开始的小时榜
+     */
+    private View dayView(String board, LocalDate day, LocalDateTime now) {
+        boolean today = day.equals(now.toLocalDate());
+        int lastHour = today ? now.getHour() : 23;
+        List<View> hours = new ArrayList<View>(lastHour + 1);
+        for (int hour = 0; hour <= lastHour; hour++) {
+            hours.add(hourView(board, day.atTime(hour, 0), !today || hour < lastHour));
+        }
+        return new View(boardKey(board) + ":d:" + day.format(DAY_FORMAT) + ":m", hours,
+                today ? mergeTtl : CLOSED_VIEW_TTL);
+    }
+
+    /**
+     * 周榜：合并本周一至今天的天榜
+     */
+    private View weekView(String board, LocalDateTime now) {
+        LocalDate monday = now.toLocalDate().with(DayOfWeek.MONDAY);
+        List<View> days = new ArrayList<View>(7);
+        for (LocalDate day = monday; !day.isAfter(now.toLocalDate()); day = day.plus(1, ChronoUnit.DAYS)) {
+            days.add(dayView(board, day, now));
+        }
+        return new View(boardKey(board) + ":w:" + monday.format(DAY_FORMAT) + ":m", days, mergeTtl);
+    }
+
+    /**
+     * 不分片时直接查询原始key，分片时查询各分片的合并结果
+     */
+    private View shardedView(String key, long ttl) {
+        if (shards <= 1) {
+            return new View(key, null, 0);
+        }
+        List<View> children = new ArrayList<View>(shards);
+        for (int i = 0; i < shards; i++) {
+            children.add(new View(key + ":s" + i, null, 0));
+        }
+        return new View(key + ":m", children, ttl);
+    }
+
+    private static void collectMergedKeys(View view, List<String> keys) {
+        if (view.children == null) {
+            return;
+        }
+        keys.add(view.key);
+        for (View child : view.children) {
+            collectMergedKeys(child, keys);
+        }
+    }
+
+    /**
+     * 自底向上合并缺失的视图，已存在的视图直接复用
+     */
+    private static void build(View view, Set<String> existing) {
+        if (view.children == null || existing.contains(view.key)) {
+            return;
+        }
+        List<String> keys = new ArrayList<String>(view.children.size());
+        for (View child : view.children) {
+            build(child, existing);
+            keys.add(child.key);
+        }
+        JedisUtil.zUnionStore(view.key, keys, view.ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private String hourKey(String board, LocalDateTime time) {
+        return boardKey(board) + ":h:" + time.format(HOUR_FORMAT);
+    }
+
+    private String boardKey(String board) {
+        return BOARD_KEY_PREFIX + board;
+    }
+
+    /**
+     * 用户所在的总榜子榜
+     */
+    private String totalKey(String board, Integer userId) {
+        return boardKey(board) + shardSuffix(userId);
+    }
+
+    private String shardSuffix(Integer userId) {
+        return shards > 1 ? ":s" + Math.floorMod(userId, shards) : "";
+    }
+
+    /**
+     * 可查询的榜单视图，children为空表示原始子榜，否则为子视图的合并结果
+     */
+    private static class View {
+        private final String key;
+        private final List<View> children;
+        private final long ttlMillis;
+
+        private View(String key, List<View> children, long ttlMillis) {
+            this.key = key;
+            this.children = children;
+            this.ttlMillis = ttlMillis;
+        }
+    }
+}
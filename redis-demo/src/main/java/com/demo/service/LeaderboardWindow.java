@@ -0,0 +1,23 @@
+package com.demo.service;
+
+/**
+ * 排行榜统计窗口
+ */
+public enum LeaderboardWindow {
+    /**
+     * 总榜
+     */
+    ALL,
+    /**
+     * 当前小时
+     */
+    HOUR,
+    /**
+     * 今天
+     */
+    DAY,
+    /**
+     * 本周（周一开始）
+     */
+    WEEK
+}
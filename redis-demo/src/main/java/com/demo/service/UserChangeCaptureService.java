@@ -0,0 +1,27 @@
+package com.demo.service;
+
+import com.demo.entity.ChangeEvent;
+
+import java.util.List;
+
+/**
+ * 用户表变更捕获：消费行变更事件同步Redis中的用户缓存、排行榜与统计
+ */
+public interface UserChangeCaptureService {
+    /**
+     * 应用一批按位置排序的事件，已应用过的位置跳过，重复应用结果相同
+     *
+     * @return 实际应用的用户数
+     */
+    int apply(List<ChangeEvent> events);
+
+    /**
+     * 最近一批事件从数据库提交到应用到Redis的延迟（毫秒），尚未应用过事件时为-1
+     */
+    long getLagMillis();
+
+    /**
+     * 最近应用的事件位置，尚未应用过事件时为-1
+     */
+    long getAppliedPosition();
+}
@@ -0,0 +1,455 @@
+package com.demo.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.demo.entity.ChangeEvent;
+import com.demo.entity.ChangeType;
+import com.demo.entity.UserEntity;
+import com.demo.mapper.UserMapper;
+import com.demo.util.ChangeEventSource;
+import com.demo.util.JedisUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户表变更捕获
+ * <p>
+ * 单线程按位置顺序消费事件源中 user 表的变更，每批按用户ID合并为最终状态后：
+ * 删除用户缓存，新增的ID加入布隆过滤器；最后一次脚本调用更新 leaderboard_user 中的用户信息、user_stats 中的用户总数与性别分布，
+ * 并记录每个用户已应用的位置。脚本中位置不大于已应用位置的用户跳过，
+ * 前面的步骤都是覆盖写或删除，中途失败整批重试、重启后重复消费都不会重复计数。
+ * <p>
+ * 每批应用后在 cdc:user:status 记录位置与延迟（当前时间减去数据库提交时间）。
+ * <p>
+ * 首次启动（同步状态中没有 snapshotAt）时先按主键分页读取全表写入临时hash，统计总数与性别分布，
+ * 再由一次脚本调用把临时hash改名为 leaderboard_user、重写 user_stats 并记录 snapshotAt，之后才开始消费。
+ * 快照之后重放事件源中较早的事件是安全的：统计按 leaderboard_user 中已存的行增减，只取决于行的状态，
+ * 较早的事件会短暂写回旧行，随后同一用户更晚的事件再把它改回，统计始终与 leaderboard_user 一致。
+ * 同一事件源只能有一个节点消费。点赞总榜与窗口榜只由加分写入，不在此同步：
+ * 行镜像中的点赞数可能落后于已在Redis中累加、尚未落库的加分，用它覆盖总榜会丢分。
+ */
+@Service
+@ConditionalOnProperty(name = "cdc.enabled", havingValue = "true")
+public class UserChangeCaptureServiceImpl implements UserChangeCaptureService {
+    private static final Logger log = LoggerFactory.getLogger(UserChangeCaptureServiceImpl.class);
+
+    private static final String TABLE = "user";
+
+    /**
+     * 每个用户已应用的事件位置，field为用户ID
+     */
+    private static final String POSITIONS_KEY = "cdc:user:positions";
+
+    /**
+     * 同步状态：position、lag、appliedAt
+     */
+    private static final String STATUS_KEY = "cdc:user:status";
+
+    /**
+     * 用户统计：total为用户总数，sex:{性别}为各性别人数
+     */
+    static final String STATS_KEY = "user_stats";
+
+    /**
+     * 快照期间写入的临时hash，完成后改名为 leaderboard_user
+     */
+    private static final String SNAPSHOT_KEY = "cdc:user:snapshot";
+
+    /**
+     * 快照时每次查询的用户数
+     */
+    private static final int SNAPSHOT_PAGE_SIZE = 500;
+
+    /**
+     * 应用失败后重试的间隔（毫秒）
+     */
+    private static final long RETRY_INTERVAL = 1000;
+
+    /**
+     * KEYS：快照临时hash、用户信息、统计、同步状态；
+     * ARGV：快照时间，之后依次为统计的field与值
+     */
+    private static final RedisScript<Long> SNAPSHOT_SCRIPT = new DefaultRedisScript<Long>(
+            "if redis.call('exists', KEYS[1]) == 1 then "
+                    + "  redis.call('rename', KEYS[1], KEYS[2]) "
+                    + "else "
+                    + "  redis.call('del', KEYS[2]) "
+                    + "end "
+                    + "redis.call('del', KEYS[3]) "
+                    + "for i = 2, #ARGV, 2 do "
+                    + "  redis.call('hset', KEYS[3], ARGV[i], ARGV[i + 1]) "
+                    + "end "
+                    + "redis.call('hset', KEYS[4], 'snapshotAt', ARGV[1]) "
+                    + "return 1", Long.class);
+
+    /**
+     * KEYS：已应用位置、用户信息、统计、同步状态；
+     * ARGV：本批最大位置、延迟、当前时间，之后每个用户依次为ID、位置、用户JSON（删除时为空串）
+     * 返回实际应用的用户数
+     */
+    private static final RedisScript<Long> APPLY_SCRIPT = new DefaultRedisScript<Long>(
+            "local function sex(json) "
+                    + "  local ok, row = pcall(cjson.decode, json) "
+                    + "  if ok and type(row) == 'table' and type(row['sex']) == 'string' then return row['sex'] end "
+                    + "  return nil "
+                    + "end "
+                    + "local applied = 0 "
+                    + "for i = 4, #ARGV, 3 do "
+                    + "  local id = ARGV[i] "
+                    + "  if tonumber(ARGV[i + 1]) > tonumber(redis.call('hget', KEYS[1], id) or '-1') then "
+                    + "    local old = redis.call('hget', KEYS[2], id) "
+                    + "    if old then "
+                    + "      redis.call('hincrby', KEYS[3], 'total', -1) "
+                    + "      local s = sex(old) "
+                    + "      if s then redis.call('hincrby', KEYS[3], 'sex:' .. s, -1) end "
+                    + "    end "
+                    + "    if ARGV[i + 2] == '' then "
+                    + "      redis.call('hdel', KEYS[2], id) "
+                    + "    else "
+                    + "      redis.call('hset', KEYS[2], id, ARGV[i + 2]) "
+                    + "      redis.call('hincrby', KEYS[3], 'total', 1) "
+                    + "      local s = sex(ARGV[i + 2]) "
+                    + "      if s then redis.call('hincrby', KEYS[3], 'sex:' .. s, 1) end "
+                    + "    end "
+                    + "    redis.call('hset', KEYS[1], id, ARGV[i + 1]) "
+                    + "    applied = applied + 1 "
+                    + "  end "
+                    + "end "
+                    + "redis.call('hmset', KEYS[4], 'position', ARGV[1], 'lag', ARGV[2], 'appliedAt', ARGV[3]) "
+                    + "return applied", Long.class);
+
+    private static final Comparator<ChangeEvent> POSITION_ORDER = new Comparator<ChangeEvent>() {
+        @Override
+        public int compare(ChangeEvent a, ChangeEvent b) {
+            return Long.compare(a.getPosition(), b.getPosition());
+        }
+    };
+
+    /**
+     * 每次从事件源读取的最大事件数
+     */
+    @Value("${cdc.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 没有事件时每次等待的时间（毫秒）
+     */
+    @Value("${cdc.poll-timeout:1000}")
+    private long pollTimeout;
+
+    /**
+     * 一批事件连续失败超过该次数后逐个应用，跳过无法应用的事件
+     */
+    @Value("${cdc.max-retries:3}")
+    private int maxRetries;
+
+    /**
+     * 延迟超过该值（毫秒）时记录告警日志，不大于0不告警
+     */
+    @Value("${cdc.lag-warn-threshold:5000}")
+    private long lagWarnThreshold;
+
+    @Resource
+    private ChangeEventSource changeEventSource;
+
+    @Resource
+    private UserService userService;
+
+    @Resource
+    private UserMapper userMapper;
+
+    private ExecutorService executor;
+
+    private volatile boolean running;
+
+    private volatile long lagMillis = -1;
+
+    private volatile long appliedPosition = -1;
+
+    @PostConstruct
+    public void init() {
+        running = true;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cdc-user");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 持续消费事件源，应用失败时保留当前批次按间隔重试，成功后才向事件源确认；
+     * 连续失败超过maxRetries次后逐个应用，避免一个无法应用的事件让消费永远停在这一批
+     */
+    private void consume() {
+        while (running) {
+            try {
+                bootstrap();
+                break;
+            } catch (Exception e) {
+                log.error("user change capture snapshot error, retry in " + RETRY_INTERVAL + "ms", e);
+                try {
+                    Thread.sleep(RETRY_INTERVAL);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+        List<ChangeEvent> events = Collections.emptyList();
+        int failures = 0;
+        while (running) {
+            try {
+                if (events.isEmpty()) {
+                    events = changeEventSource.poll(batchSize, pollTimeout);
+                    if (events.isEmpty()) {
+                        continue;
+                    }
+                }
+                if (failures > maxRetries) {
+                    applyEach(events);
+                } else {
+                    apply(events);
+                }
+                changeEventSource.commit(events.get(events.size() - 1).getPosition());
+                events = Collections.emptyList();
+                failures = 0;
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                failures++;
+                log.error("apply user change events error (" + failures + " times), retry in " + RETRY_INTERVAL + "ms", e);
+                try {
+                    Thread.sleep(RETRY_INTERVAL);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 按位置逐个应用，事件本身无法应用时记录日志后跳过；Redis访问失败不跳过，整批留待重试
+     */
+    private void applyEach(List<ChangeEvent> events) {
+        List<ChangeEvent> sorted = new ArrayList<ChangeEvent>(events);
+        Collections.sort(sorted, POSITION_ORDER);
+        for (ChangeEvent event : sorted) {
+            try {
+                apply(Collections.singletonList(event));
+            } catch (DataAccessException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                log.error("skip user change event that cannot be applied: " + JSON.toJSONString(event), e);
+            }
+        }
+    }
+
+    @Override
+    public int apply(List<ChangeEvent> events) {
+        List<ChangeEvent> sorted = new ArrayList<ChangeEvent>(events);
+        Collections.sort(sorted, POSITION_ORDER);
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        ChangeEvent newest = sorted.get(sorted.size() - 1);
+
+        // 按用户ID合并，同一用户只保留未应用过的最后一个事件
+        Map<Integer, ChangeEvent> finals = new LinkedHashMap<Integer, ChangeEvent>();
+        Set<Integer> inserted = new LinkedHashSet<Integer>();
+        Map<Integer, Long> applied = appliedPositions(sorted);
+        for (ChangeEvent event : sorted) {
+            Integer id = userId(event);
+            if (id == null || event.getPosition() <= applied.get(id)) {
+                continue;
+            }
+            finals.put(id, event);
+            if (event.getType() == ChangeType.INSERT) {
+                inserted.add(id);
+            } else if (event.getType() == ChangeType.DELETE) {
+                inserted.remove(id);
+            }
+        }
+
+        List<Object> records = new ArrayList<Object>(finals.size() * 3);
+        if (!finals.isEmpty()) {
+            for (Map.Entry<Integer, ChangeEvent> entry : finals.entrySet()) {
+                ChangeEvent event = entry.getValue();
+                String json = "";
+                if (event.getType() != ChangeType.DELETE) {
+                    json = JSON.toJSONString(JSON.toJavaObject(new JSONObject(event.getAfter()), UserEntity.class));
+                }
+                records.add(entry.getKey().toString());
+                records.add(event.getPosition().toString());
+                records.add(json);
+            }
+            userService.onUsersChanged(finals.keySet(), inserted);
+        }
+        return record(newest, records);
+    }
+
+    /**
+     * 还没有快照时从数据库全量构建 leaderboard_user 与 user_stats
+     */
+    private void bootstrap() {
+        if (JedisUtil.hget(STATUS_KEY, "snapshotAt") != null) {
+            return;
+        }
+        long snapshotAt = System.currentTimeMillis();
+        JedisUtil.deleteKey(SNAPSHOT_KEY);
+        long total = 0;
+        Map<String, Long> sexes = new LinkedHashMap<String, Long>();
+        Integer lastId = 0;
+        while (true) {
+            QueryWrapper<UserEntity> queryWrapper = new QueryWrapper<UserEntity>();
+            queryWrapper.gt("id", lastId).orderByAsc("id").last("limit " + SNAPSHOT_PAGE_SIZE);
+            List<UserEntity> page = userMapper.selectList(queryWrapper);
+            Map<Object, Object> rows = new HashMap<Object, Object>(page.size() * 2);
+            for (UserEntity user : page) {
+                rows.put(user.getId().toString(), JSON.toJSONString(user));
+                total++;
+                if (user.getSex() != null) {
+                    Long count = sexes.get(user.getSex());
+                    sexes.put(user.getSex(), count == null ? 1L : count + 1);
+                }
+            }
+            if (!rows.isEmpty()) {
+                JedisUtil.hmset(SNAPSHOT_KEY, rows);
+            }
+            if (page.size() < SNAPSHOT_PAGE_SIZE) {
+                break;
+            }
+            lastId = page.get(page.size() - 1).getId();
+        }
+        List<Object> args = new ArrayList<Object>(3 + sexes.size() * 2);
+        args.add(String.valueOf(snapshotAt));
+        args.add("total");
+        args.add(String.valueOf(total));
+        for (Map.Entry<String, Long> sex : sexes.entrySet()) {
+            args.add("sex:" + sex.getKey());
+            args.add(sex.getValue().toString());
+        }
+        JedisUtil.eval(SNAPSHOT_SCRIPT, Arrays.asList(SNAPSHOT_KEY, LeaderboardServiceImpl.USER_KEY, STATS_KEY, STATUS_KEY),
+                args.toArray());
+        log.info("user change capture snapshot loaded " + total + " users");
+    }
+
+    @Override
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    @Override
+    public long getAppliedPosition() {
+        return appliedPosition;
+    }
+
+    /**
+     * 执行脚本写入用户信息、统计与已应用位置，并记录同步状态，作为本批的最后一步
+     */
+    private int record(ChangeEvent newest, List<Object> records) {
+        long now = System.currentTimeMillis();
+        long lag = newest.getTimestamp() == null ? -1 : Math.max(0, now - newest.getTimestamp());
+        List<Object> args = new ArrayList<Object>(3 + records.size());
+        args.add(newest.getPosition().toString());
+        args.add(String.valueOf(lag));
+        args.add(String.valueOf(now));
+        args.addAll(records);
+        Long count = JedisUtil.eval(APPLY_SCRIPT, Arrays.asList(POSITIONS_KEY, LeaderboardServiceImpl.USER_KEY, STATS_KEY, STATUS_KEY),
+                args.toArray());
+        appliedPosition = newest.getPosition();
+        lagMillis = lag;
+        if (lagWarnThreshold > 0 && lag > lagWarnThreshold) {
+            log.warn("user change capture lag " + lag + "ms at position " + newest.getPosition());
+        }
+        return count == null ? 0 : count.intValue();
+    }
+
+    /**
+     * 一次hmget查询本批涉及的用户已应用的位置，没有记录的为-1
+     */
+    private Map<Integer, Long> appliedPositions(List<ChangeEvent> events) {
+        List<Object> ids = new ArrayList<Object>();
+        Set<Integer> seen = new LinkedHashSet<Integer>();
+        for (ChangeEvent event : events) {
+            Integer id = userId(event);
+            if (id != null && seen.add(id)) {
+                ids.add(id.toString());
+            }
+        }
+        Map<Integer, Long> positions = new HashMap<Integer, Long>();
+        if (ids.isEmpty()) {
+            return positions;
+        }
+        List<Object> values = JedisUtil.hmget(POSITIONS_KEY, ids);
+        int i = 0;
+        for (Integer id : seen) {
+            Object value = values.get(i++);
+            positions.put(id, value == null ? -1L : Long.parseLong(value.toString()));
+        }
+        return positions;
+    }
+
+    /**
+     * user 表事件的主键，其他表的事件与主键缺失或无法解析的事件返回null
+     */
+    private static Integer userId(ChangeEvent event) {
+        if (!TABLE.equalsIgnoreCase(event.getTable()) || event.getType() == null) {
+            return null;
+        }
+        Map<String, Object> row = event.getType() == ChangeType.DELETE ? event.getBefore() : event.getAfter();
+        Object id = row == null ? null : row.get("id");
+        if (id instanceof Number) {
+            return ((Number) id).intValue();
+        }
+        try {
+            return id == null ? null : Integer.valueOf(id.toString().trim());
+        } catch (NumberFormatException e) {
+            log.error("skip user change event with invalid id '" + id + "' at position " + event.getPosition());
+            return null;
+        }
+    }
+}
@@ -4,12 +4,20 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.demo.entity.UserEntity;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+
 /**
  * Created by SI-GZ-0953 on 2018/12/13.
  */
 public interface UserService  extends IService<UserEntity> {
     void testTransactional();
     void testBigData();
+    void cacheUserList();
     void testSort();
     Object getSort();
+
+    /**
+     * 变更已由变更捕获同步到Redis后调用：删除这些用户的缓存，新增的ID加入布隆过滤器
+     */
+    void onUsersChanged(Collection<Integer> changedIds, Collection<Integer> insertedIds);
 }
@@ -1,37 +1,338 @@
 package com.demo.service;
 
-import com.alibaba.fastjson.JSON;
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.demo.entity.UserEntity;
 import com.demo.mapper.UserMapper;
-import com.demo.util.JedisUtil;
+import com.demo.util.CacheAside;
+import com.demo.util.ChunkedCollectionStore;
+import com.demo.util.EntityInsertInterceptor;
+import com.demo.util.RedisBloomFilter;
+import com.demo.util.TransactionalCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.transaction.Transactional;
+import java.io.Serializable;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by SI-GZ-0953 on 2018/12/13.
  */
 @Service
 public class UserServiceImpl extends ServiceImpl<UserMapper, UserEntity> implements UserService {
+    private static final Logger log = LoggerFactory.getLogger(UserServiceImpl.class);
+
+    /**
+     * 用户全表在Redis中的分块存储key
+     */
+    private static final String USER_LIST_KEY = "userList";
+
+    /**
+     * 分块存储每块的用户数，同时也是分页查询数据库的页大小
+     */
+    private static final int USER_LIST_CHUNK_SIZE = 500;
+
+    /**
+     * 点赞排行榜
+     */
+    private static final String LIKE_BOARD = "like";
+
+    /**
+     * 单个用户的缓存key前缀，以紧凑二进制格式存储
+     */
+    private static final String USER_KEY_PREFIX = "user:";
+
+    /**
+     * 初始构建用户ID布隆过滤器时每次查询的ID数
+     */
+    private static final int USER_BLOOM_PAGE_SIZE = 1000;
+
+    /**
+     * 单个用户的缓存时间（毫秒）
+     */
+    @Value("${user.cache.ttl:1800000}")
+    private long userCacheTtl;
+
+    /**
+     * 提前刷新的倾向，0为不提前刷新
+     */
+    @Value("${user.cache.early-refresh-beta:1.0}")
+    private double userCacheBeta;
+
+    /**
+     * 合并多个请求未命中的窗口（毫秒），0为只合并同一次调用中的未命中
+     */
+    @Value("${user.cache.batch-window:2}")
+    private long userCacheBatchWindow;
+
+    /**
+     * 每次批量查询的最大ID数
+     */
+    @Value("${user.cache.max-batch-size:100}")
+    private int userCacheMaxBatchSize;
+
+    /**
+     * 不存在的用户ID的缓存时间（毫秒），不大于0不缓存
+     */
+    @Value("${user.cache.negative-ttl:60000}")
+    private long userCacheNegativeTtl;
+
+    /**
+     * 等待加载结果的最长时间（毫秒）
+     */
+    @Value("${user.cache.load-timeout:5000}")
+    private long userCacheLoadTimeout;
+
+    /**
+     * 是否用布隆过滤器排除不存在的用户ID
+     */
+    @Value("${user.bloom.enabled:false}")
+    private boolean userBloomEnabled;
+
+    @Value("${user.bloom.expected-insertions:1000000}")
+    private long userBloomExpectedInsertions;
+
+    @Value("${user.bloom.fpp:0.01}")
+    private double userBloomFpp;
+
+    /**
+     * 从Redis全量合并布隆过滤器的间隔（毫秒）
+     */
+    @Value("${user.bloom.refresh-interval:60000}")
+    private long userBloomRefreshInterval;
+
+    /**
+     * 是否由变更捕获同步Redis，开启后写操作不再在请求中维护缓存
+     */
+    @Value("${cdc.enabled:false}")
+    private boolean cdcEnabled;
+
+    private CacheAside<UserEntity> userCache;
+
+    private RedisBloomFilter userBloomFilter;
 
     @Resource
     private UserMapper userMapper;
 
+    @Resource
+    private LeaderboardService leaderboardService;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private EntityInsertInterceptor entityInsertInterceptor;
+
+    @PostConstruct
+    public void init() {
+        userCache = new CacheAside<UserEntity>(USER_KEY_PREFIX, userCacheTtl, TimeUnit.MILLISECONDS, userCacheBeta,
+                new CacheAside.BatchLoader<UserEntity>() {
+                    @Override
+                    public Map<Serializable, UserEntity> loadAll(List<String> ids) {
+                        // 未命中的ID合并为一次IN查询
+                        Map<Serializable, UserEntity> users = new HashMap<Serializable, UserEntity>();
+                        for (UserEntity user : userMapper.selectBatchIds(ids)) {
+                            users.put(user.getId(), user);
+                        }
+                        return users;
+                    }
+                }, userCacheBatchWindow, userCacheMaxBatchSize);
+        userCache.setNegativeTtl(userCacheNegativeTtl, TimeUnit.MILLISECONDS);
+        userCache.setLoadTimeout(userCacheLoadTimeout, TimeUnit.MILLISECONDS);
+        if (userBloomEnabled) {
+            userBloomFilter = new RedisBloomFilter("user", userBloomExpectedInsertions, userBloomFpp, userBloomRefreshInterval);
+            redisMessageListenerContainer.addMessageListener(userBloomFilter, userBloomFilter.topic());
+            initUserBloomFilter();
+            userCache.setGuard(new CacheAside.Guard() {
+                @Override
+                public boolean mightContain(Serializable id) {
+                    return userBloomFilter.mightContain(id);
+                }
+            });
+        }
+        if (!cdcEnabled) {
+            // save、saveBatch、saveOrUpdate和直接调用userMapper.insert都在提交后经过这里
+            entityInsertInterceptor.register(UserEntity.class, new EntityInsertInterceptor.Listener() {
+                @Override
+                public void afterInsert(Serializable id) {
+                    if (userBloomFilter != null) {
+                        userBloomFilter.put(id);
+                    }
+                    // 清除该ID的负缓存
+                    userCache.evict(id);
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (userBloomFilter != null) {
+            userBloomFilter.shutdown();
+        }
+    }
+
+    /**
+     * 按主键分页读取全部用户ID构建布隆过滤器，Redis中没有完整的位图时才构建；
+     * 失败时过滤器保持放行，由定时合并重新构建
+     */
+    private void initUserBloomFilter() {
+        userBloomFilter.setLoader(new RedisBloomFilter.Loader() {
+            @Override
+            public void load(RedisBloomFilter.Build build) {
+                Integer lastId = 0;
+                while (true) {
+                    QueryWrapper<UserEntity> queryWrapper = new QueryWrapper<UserEntity>();
+                    queryWrapper.select("id").gt("id", lastId).orderByAsc("id").last("limit " + USER_BLOOM_PAGE_SIZE);
+                    List<Object> ids = userMapper.selectObjs(queryWrapper);
+                    build.addAll(ids);
+                    if (ids.size() < USER_BLOOM_PAGE_SIZE) {
+                        break;
+                    }
+                    lastId = ((Number) ids.get(ids.size() - 1)).intValue();
+                }
+            }
+        });
+        try {
+            userBloomFilter.refresh();
+        } catch (Exception e) {
+            log.error("user bloom filter init error, all ids are allowed until next refresh", e);
+        }
+    }
+
+    @Override
+    public UserEntity getById(Serializable id) {
+        return userCache.get(id);
+    }
+
+    @Override
+    public Collection<UserEntity> listByIds(Collection<? extends Serializable> idList) {
+        return userCache.getAll(idList).values();
+    }
+
+    @Override
+    public boolean updateById(UserEntity entity) {
+        boolean updated = super.updateById(entity);
+        evictAfterCommit(Collections.<Serializable>singletonList(entity.getId()));
+        return updated;
+    }
+
+    @Override
+    public boolean updateBatchById(Collection<UserEntity> entityList, int batchSize) {
+        boolean updated = super.updateBatchById(entityList, batchSize);
+        evictAfterCommit(idsOf(entityList));
+        return updated;
+    }
+
+    /**
+     * 按条件更新时先查出受影响的ID，提交后删除这些ID的缓存
+     */
+    @Override
+    public boolean update(UserEntity entity, Wrapper<UserEntity> updateWrapper) {
+        List<Serializable> ids = cdcEnabled ? Collections.<Serializable>emptyList() : idsOf(userMapper.selectList(updateWrapper));
+        boolean updated = super.update(entity, updateWrapper);
+        evictAfterCommit(ids);
+        return updated;
+    }
+
+    @Override
+    public boolean saveOrUpdateBatch(Collection<UserEntity> entityList, int batchSize) {
+        boolean saved = super.saveOrUpdateBatch(entityList, batchSize);
+        evictAfterCommit(idsOf(entityList));
+        return saved;
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean removed = super.removeById(id);
+        evictAfterCommit(Collections.singletonList(id));
+        return removed;
+    }
+
+    @Override
+    public boolean removeByIds(Collection<? extends Serializable> idList) {
+        boolean removed = super.removeByIds(idList);
+        evictAfterCommit(new ArrayList<Serializable>(idList));
+        return removed;
+    }
+
+    @Override
+    public boolean removeByMap(Map<String, Object> columnMap) {
+        List<Serializable> ids = cdcEnabled ? Collections.<Serializable>emptyList() : idsOf(userMapper.selectByMap(columnMap));
+        boolean removed = super.removeByMap(columnMap);
+        evictAfterCommit(ids);
+        return removed;
+    }
+
+    @Override
+    public boolean remove(Wrapper<UserEntity> wrapper) {
+        List<Serializable> ids = cdcEnabled ? Collections.<Serializable>emptyList() : idsOf(userMapper.selectList(wrapper));
+        boolean removed = super.remove(wrapper);
+        evictAfterCommit(ids);
+        return removed;
+    }
+
+    private static List<Serializable> idsOf(Collection<UserEntity> users) {
+        List<Serializable> ids = new ArrayList<Serializable>(users.size());
+        for (UserEntity user : users) {
+            if (user.getId() != null) {
+                ids.add(user.getId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 事务提交后删除用户缓存，并延迟再删除一次，避免提交前读到旧数据的请求把旧值写回缓存
+     */
+    private void evictAfterCommit(final Collection<Serializable> ids) {
+        if (cdcEnabled || ids.isEmpty()) {
+            return;
+        }
+        TransactionalCache.invalidate(new Runnable() {
+            @Override
+            public void run() {
+                userCache.evictAll(ids);
+            }
+        });
+    }
+
+    @Override
+    public void onUsersChanged(Collection<Integer> changedIds, Collection<Integer> insertedIds) {
+        if (userBloomFilter != null) {
+            for (Integer id : insertedIds) {
+                userBloomFilter.put(id);
+            }
+        }
+        userCache.evictAll(changedIds);
+    }
+
     @Override
     @Transactional
     public void testTransactional() {
         ///
-        JedisUtil.set("transactional", "测试事务1");
+        // 提交后才写入，下面抛出异常回滚时两次写入都不会执行
+        TransactionalCache.set("transactional", "测试事务1");
         List<UserEntity> objects = new ArrayList<UserEntity>();
         objects.get(1).toString();
         ///
-        JedisUtil.set("transactional", "测试事务2");
+        TransactionalCache.set("transactional", "测试事务2");
     }
 
     @Override
@@ -43,11 +344,15 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, UserEntity> impleme
         long allTime = endTime - startTime;
         System.out.println("查询数据库耗时：" + allTime + "毫秒");
 
+        if (!ChunkedCollectionStore.exists(USER_LIST_KEY)) {
+            cacheUserList();
+        }
         startTime = System.currentTimeMillis();
-        String userString = JedisUtil.get("userString").toString();
+        // 按块读取，不会一次性把整张表读入内存
+        long userCount = ChunkedCollectionStore.stream(USER_LIST_KEY, UserEntity.class).count();
         endTime = System.currentTimeMillis();
         long allTime2 = endTime - startTime;
-        System.out.println("查询Redis耗时：" + allTime2 + "毫秒");
+        System.out.println("查询Redis耗时：" + allTime2 + "毫秒，共" + userCount + "条");
 
         //Redis不支持直接将Java对象存储到数据库中
         //序列化再耗时也就几毫秒的事情，走业务逻如果不走redis，辑取结果的时间得是他几十上百倍，
@@ -62,6 +367,24 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, UserEntity> impleme
 
     }
 
+    @Override
+    public void cacheUserList() {
+        // 按主键分页查询，每页写成一块，不会一次性把整张表读入内存
+        ChunkedCollectionStore.Writer<UserEntity> writer = ChunkedCollectionStore.writer(USER_LIST_KEY, USER_LIST_CHUNK_SIZE);
+        Integer lastId = 0;
+        while (true) {
+            QueryWrapper<UserEntity> queryWrapper = new QueryWrapper<UserEntity>();
+            queryWrapper.gt("id", lastId).orderByAsc("id").last("limit " + USER_LIST_CHUNK_SIZE);
+            List<UserEntity> page = userMapper.selectList(queryWrapper);
+            writer.addAll(page);
+            if (page.size() < USER_LIST_CHUNK_SIZE) {
+                break;
+            }
+            lastId = page.get(page.size() - 1).getId();
+        }
+        writer.commit();
+    }
+
     @Override
     public void testSort() {
         UserEntity userEntity1 = new UserEntity();
@@ -76,10 +399,10 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, UserEntity> impleme
         userEntity3.setId(333);
         userEntity3.setName("赖进杰3");
         userEntity3.setLikeNum(0D);
-        JedisUtil.zAdd("id", JSON.toJSONString(userEntity1), userEntity1.getLikeNum());
-        JedisUtil.zAdd("id", JSON.toJSONString(userEntity2), userEntity2.getLikeNum());
-        JedisUtil.zAdd("id", JSON.toJSONString(userEntity3), userEntity3.getLikeNum());
-        Object id = JedisUtil.hSet("id");
+        for (UserEntity userEntity : Arrays.asList(userEntity1, userEntity2, userEntity3)) {
+            leaderboardService.saveUser(userEntity);
+            leaderboardService.incrementScore(LIKE_BOARD, userEntity.getId(), userEntity.getLikeNum());
+        }
     }
 
     @Override
@@ -88,8 +411,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, UserEntity> impleme
         userEntity1.setId(333);
         userEntity1.setName("赖进杰3");
         userEntity1.setLikeNum(0D);
-        JedisUtil.zAdd("id", JSON.toJSONString(userEntity1), 51D);
-        Object object = JedisUtil.hSet("id");
-        return object;
+        // 每次调用给333加51分：原先的JedisUtil.zAdd实际执行的也是ZINCRBY，这里保持累加语义
+        leaderboardService.incrementScore(LIKE_BOARD, userEntity1.getId(), 51D);
+        return leaderboardService.top(LIKE_BOARD, 1, 10);
     }
 }
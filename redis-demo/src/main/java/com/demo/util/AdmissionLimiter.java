@@ -0,0 +1,56 @@
+package com.demo.util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 准入限制：同时处理的请求数超过上限时直接拒绝，在请求堆积到连接池之前丢弃过载的部分
+ */
+public class AdmissionLimiter {
+
+    private final Semaphore permits;
+
+    /**
+     * 没有空闲名额时的最长等待时间（毫秒）
+     */
+    private final long waitMillis;
+
+    /**
+     * @param maxConcurrent 同时处理的最大请求数
+     * @param waitMillis    没有空闲名额时的最长等待时间，0为不等待
+     */
+    public AdmissionLimiter(int maxConcurrent, long waitMillis) {
+        this.permits = new Semaphore(maxConcurrent);
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * 获取名额，成功后必须调用release
+     *
+     * @return 过载时返回false
+     */
+    public boolean tryAcquire() {
+        if (waitMillis <= 0) {
+            return permits.tryAcquire();
+        }
+        try {
+            return permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * 当前空闲名额数
+     *
+     * @return
+     */
+    public int available() {
+        return permits.availablePermits();
+    }
+}
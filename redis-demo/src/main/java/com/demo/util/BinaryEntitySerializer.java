@@ -0,0 +1,273 @@
+package com.demo.util;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * 紧凑的实体二进制序列化
+ * <p>
+ * 不写入类名与字段名，字段按名称排序后依次写入：整数用zigzag变长编码，浮点数写IEEE位，
+ * 字符串写变长长度+UTF-8。头部为魔数与字段结构指纹，实体字段变化后旧数据反序列化失败，按未命中处理。
+ * 支持基本类型及其包装类、String、BigDecimal、Date，字段数不超过64。
+ */
+public class BinaryEntitySerializer<T> implements RedisSerializer<T> {
+
+    /**
+     * 魔数，0xC0在UTF-8中不会出现，可与字符串值区分
+     */
+    static final byte MAGIC = (byte) 0xC0;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAX_FIELDS = 64;
+
+    private final Class<T> type;
+
+    private final Field[] fields;
+
+    private final int fingerprint;
+
+    public BinaryEntitySerializer(Class<T> type) {
+        this.type = type;
+        List<Field> list = new ArrayList<Field>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                if (!isSupported(field.getType())) {
+                    throw new IllegalArgumentException("Unsupported field type: " + field);
+                }
+                field.setAccessible(true);
+                list.add(field);
+            }
+        }
+        if (list.size() > MAX_FIELDS) {
+            throw new IllegalArgumentException(type + " has more than " + MAX_FIELDS + " fields.");
+        }
+        Collections.sort(list, new Comparator<Field>() {
+            @Override
+            public int compare(Field o1, Field o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+        this.fields = list.toArray(new Field[list.size()]);
+        int hash = 17;
+        for (Field field : fields) {
+            hash = 31 * hash + field.getName().hashCode();
+            hash = 31 * hash + field.getType().getName().hashCode();
+        }
+        this.fingerprint = hash;
+    }
+
+    @Override
+    public byte[] serialize(T entity) throws SerializationException {
+        if (entity == null) {
+            return null;
+        }
+        try {
+            Output out = new Output();
+            out.write(MAGIC);
+            out.writeInt32(fingerprint);
+            long present = 0;
+            Object[] values = new Object[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                values[i] = fields[i].get(entity);
+                if (values[i] != null) {
+                    present |= 1L << i;
+                }
+            }
+            out.writeVarLong(present);
+            for (int i = 0; i < fields.length; i++) {
+                if (values[i] != null) {
+                    writeValue(out, fields[i].getType(), values[i]);
+                }
+            }
+            return out.toByteArray();
+        } catch (IllegalAccessException e) {
+            throw new SerializationException("Cannot serialize " + type.getName(), e);
+        }
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        Input in = new Input(bytes);
+        try {
+            // 头部也可能不完整（如旧格式的短值），一并按截断处理
+            if (in.read() != MAGIC || in.readInt32() != fingerprint) {
+                throw new SerializationException("Cannot deserialize " + type.getName() + ": schema mismatch.");
+            }
+            T entity = type.newInstance();
+            long present = in.readVarLong();
+            for (int i = 0; i < fields.length; i++) {
+                if ((present & (1L << i)) != 0) {
+                    fields[i].set(entity, readValue(in, fields[i].getType()));
+                }
+            }
+            return entity;
+        } catch (InstantiationException e) {
+            throw new SerializationException("Cannot deserialize " + type.getName(), e);
+        } catch (IllegalAccessException e) {
+            throw new SerializationException("Cannot deserialize " + type.getName(), e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new SerializationException("Cannot deserialize " + type.getName() + ": truncated data.", e);
+        }
+    }
+
+    private static boolean isSupported(Class<?> c) {
+        return c.isPrimitive() || c == Integer.class || c == Long.class || c == Short.class || c == Byte.class
+                || c == Boolean.class || c == Double.class || c == Float.class || c == Character.class
+                || c == String.class || c == BigDecimal.class || c == Date.class;
+    }
+
+    private static void writeValue(Output out, Class<?> c, Object value) {
+        if (c == int.class || c == Integer.class || c == short.class || c == Short.class
+                || c == byte.class || c == Byte.class) {
+            out.writeVarLong(zigzag(((Number) value).longValue()));
+        } else if (c == long.class || c == Long.class) {
+            out.writeVarLong(zigzag((Long) value));
+        } else if (c == char.class || c == Character.class) {
+            out.writeVarLong((Character) value);
+        } else if (c == boolean.class || c == Boolean.class) {
+            out.write((Boolean) value ? 1 : 0);
+        } else if (c == double.class || c == Double.class) {
+            out.writeInt64(Double.doubleToLongBits((Double) value));
+        } else if (c == float.class || c == Float.class) {
+            out.writeInt32(Float.floatToIntBits((Float) value));
+        } else if (c == Date.class) {
+            out.writeVarLong(zigzag(((Date) value).getTime()));
+        } else if (c == BigDecimal.class) {
+            out.writeString(((BigDecimal) value).toString());
+        } else {
+            out.writeString((String) value);
+        }
+    }
+
+    private static Object readValue(Input in, Class<?> c) {
+        if (c == int.class || c == Integer.class) {
+            return (int) unzigzag(in.readVarLong());
+        } else if (c == short.class || c == Short.class) {
+            return (short) unzigzag(in.readVarLong());
+        } else if (c == byte.class || c == Byte.class) {
+            return (byte) unzigzag(in.readVarLong());
+        } else if (c == long.class || c == Long.class) {
+            return unzigzag(in.readVarLong());
+        } else if (c == char.class || c == Character.class) {
+            return (char) in.readVarLong();
+        } else if (c == boolean.class || c == Boolean.class) {
+            return in.read() != 0;
+        } else if (c == double.class || c == Double.class) {
+            return Double.longBitsToDouble(in.readInt64());
+        } else if (c == float.class || c == Float.class) {
+            return Float.intBitsToFloat(in.readInt32());
+        } else if (c == Date.class) {
+            return new Date(unzigzag(in.readVarLong()));
+        } else if (c == BigDecimal.class) {
+            return new BigDecimal(in.readString());
+        } else {
+            return in.readString();
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+
+        private Output() {
+            super(64);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void writeInt32(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                write(value >>> shift);
+            }
+        }
+
+        private void writeInt64(long value) {
+            writeInt32((int) (value >>> 32));
+            writeInt32((int) value);
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static class Input {
+        private final byte[] bytes;
+        private int position;
+
+        private Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private byte read() {
+            return bytes[position++];
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new SerializationException("Malformed varint.");
+        }
+
+        private int readInt32() {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | (read() & 0xFF);
+            }
+            return value;
+        }
+
+        private long readInt64() {
+            return ((long) readInt32() << 32) | (readInt32() & 0xFFFFFFFFL);
+        }
+
+        private String readString() {
+            int length = (int) readVarLong();
+            if (length < 0 || position + length > bytes.length) {
+                throw new ArrayIndexOutOfBoundsException(position + length);
+            }
+            String value = new String(bytes, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.demo.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.util.Assert;
+
+/**
+ * 旁路缓存（cache-aside）
+ * <p>
+ * 每个ID一个key，未命中的ID去重后由数据源批量加载（如一次IN查询），结果以一次pipeline写回；
+ * 同一节点上同一个key同时只加载一次，其他线程等待其结果；配置合并窗口后，窗口内多个线程的未命中也合并为一次加载。
+ * 读取时同时取回剩余存活时间，按XFetch算法随机提前刷新：剩余时间越短、加载越慢，越可能提前刷新，
+ * 热点key在过期前就已被某个请求重新加载，过期时不会有大量请求同时打到数据库。
+ * <p>
+ * 可选的防穿透：设置了Guard时先排除一定不存在的ID，不访问缓存与数据库；
+ * 设置了负缓存时间时，数据源中不存在的ID以 miss:{key} 记录一段时间，期间不再加载。
+ * <p>
+ * 等待加载结果最多loadTimeout：提前刷新的ID超时或加载失败时返回缓存中的旧值，未命中的ID抛出异常。
+ */
+public class CacheAside<T> {
+    private static final Logger log = LoggerFactory.getLogger(CacheAside.class);
+
+    /**
+     * 批量数据源
+     */
+    public interface BatchLoader<T> {
+        /**
+         * @param ids 去重后的ID（字符串形式）
+         * @return ID -> 值，不存在的ID不包含在结果中
+         */
+        Map<Serializable, T> loadAll(List<String> ids);
+    }
+
+    /**
+     * 判断ID是否可能存在，如布隆过滤器
+     */
+    public interface Guard {
+        boolean mightContain(Serializable id);
+    }
+
+    /**
+     * 负缓存的key前缀
+     */
+    private static final String MISS_KEY_PREFIX = "miss:";
+
+    /**
+     * 加载耗时的平滑系数
+     */
+    private static final double EWMA_ALPHA = 0.2;
+
+    /**
+     * 默认等待加载结果的最长时间（毫秒）
+     */
+    private static final long DEFAULT_LOAD_TIMEOUT = 5000;
+
+    private final String keyPrefix;
+
+    private final long ttlMillis;
+
+    /**
+     * 提前刷新的倾向，越大越早刷新，0为不提前刷新
+     */
+    private final double beta;
+
+    private final BatchLoader<T> loader;
+
+    private final DataLoader<String, T> dataLoader;
+
+    private volatile Guard guard;
+
+    /**
+     * 负缓存时间（毫秒），不大于0不缓存不存在的ID
+     */
+    private volatile long negativeTtlMillis;
+
+    /**
+     * 等待加载结果的最长时间（毫秒）
+     */
+    private volatile long loadTimeoutMillis = DEFAULT_LOAD_TIMEOUT;
+
+    /**
+     * 加载耗时的指数加权平均（毫秒）
+     */
+    private volatile double loadMillis;
+
+    /**
+     * @param keyPrefix key前缀，key为前缀加ID
+     * @param ttl       缓存存活时间
+     * @param unit
+     * @param beta      提前刷新的倾向，通常为1，0为不提前刷新
+     * @param loader
+     */
+    public CacheAside(String keyPrefix, long ttl, TimeUnit unit, double beta, BatchLoader<T> loader) {
+        this(keyPrefix, ttl, unit, beta, loader, 0, 100);
+    }
+
+    /**
+     * @param keyPrefix         key前缀，key为前缀加ID
+     * @param ttl               缓存存活时间
+     * @param unit
+     * @param beta              提前刷新的倾向，通常为1，0为不提前刷新
+     * @param loader
+     * @param batchWindowMillis 合并多个线程未命中的窗口，0为只合并同一次调用中的未命中
+     * @param maxBatchSize      每次批量加载的最大ID数
+     */
+    public CacheAside(String keyPrefix, long ttl, TimeUnit unit, double beta, BatchLoader<T> loader,
+                      long batchWindowMillis, int maxBatchSize) {
+        Assert.hasText(keyPrefix, "Parameter 'keyPrefix' must not be empty.");
+        Assert.notNull(loader, "Parameter 'loader' must not be null.");
+        this.keyPrefix = keyPrefix;
+        this.ttlMillis = unit.toMillis(ttl);
+        this.beta = beta;
+        this.loader = loader;
+        this.dataLoader = new DataLoader<String, T>(new DataLoader.BatchFunction<String, T>() {
+            @Override
+            public Map<String, T> loadAll(List<String> keys) {
+                return loadAndWriteBack(keys);
+            }
+        }, batchWindowMillis, maxBatchSize);
+    }
+
+    public void setGuard(Guard guard) {
+        this.guard = guard;
+    }
+
+    /**
+     * 设置负缓存时间，应明显短于正常的缓存时间
+     *
+     * @param ttl
+     * @param unit
+     */
+    public void setNegativeTtl(long ttl, TimeUnit unit) {
+        this.negativeTtlMillis = unit.toMillis(ttl);
+    }
+
+    /**
+     * 设置等待加载结果的最长时间，不大于0时使用默认值
+     *
+     * @param timeout
+     * @param unit
+     */
+    public void setLoadTimeout(long timeout, TimeUnit unit) {
+        long millis = unit.toMillis(timeout);
+        this.loadTimeoutMillis = millis > 0 ? millis : DEFAULT_LOAD_TIMEOUT;
+    }
+
+    public T get(Serializable id) {
+        Map<Serializable, T> values = getAll(Collections.singletonList(id));
+        return values.get(id);
+    }
+
+    /**
+     * 批量读取，一次pipeline取回全部缓存，未命中或需要提前刷新的ID合并为一次批量加载
+     *
+     * @param ids
+     * @return ID -> 值，按ids的顺序，不存在的ID不包含在结果中
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Serializable, T> getAll(Collection<? extends Serializable> ids) {
+        Map<Serializable, T> result = new LinkedHashMap<Serializable, T>();
+        if (ids == null || ids.isEmpty()) {
+            return result;
+        }
+        Guard guard = this.guard;
+        List<Serializable> candidates = new ArrayList<Serializable>(ids.size());
+        List<String> keys = new ArrayList<String>(ids.size());
+        for (Serializable id : ids) {
+            if (guard == null || guard.mightContain(id)) {
+                candidates.add(id);
+                keys.add(key(id));
+            }
+        }
+        if (candidates.isEmpty()) {
+            return result;
+        }
+        Map<String, ExpiringValue> cached = JedisUtil.mgetWithTtl(keys);
+        Set<String> knownMissing = knownMissing(candidates, cached);
+        List<String> loadKeys = new ArrayList<String>();
+        for (Serializable id : candidates) {
+            String key = key(id);
+            ExpiringValue value = cached.get(key);
+            if (value == null ? !knownMissing.contains(missKey(key)) : shouldRefresh(value.getTtlMillis())) {
+                loadKeys.add(key);
+            }
+        }
+        Map<String, CompletableFuture<T>> loading = loadKeys.isEmpty()
+                ? Collections.<String, CompletableFuture<T>>emptyMap() : dataLoader.loadMany(loadKeys);
+        // 所有ID共用一个截止时间，一次调用最多等待loadTimeout
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(loadTimeoutMillis);
+        for (Serializable id : candidates) {
+            String key = key(id);
+            ExpiringValue value = cached.get(key);
+            CompletableFuture<T> future = loading.get(key);
+            T loaded = future == null ? null : join(future, deadline, value != null);
+            if (loaded != null) {
+                result.put(id, loaded);
+            } else if (value != null) {
+                result.put(id, (T) value.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 写入缓存
+     *
+     * @param id
+     * @param value
+     */
+    public void put(Serializable id, T value) {
+        JedisUtil.mset(Collections.<String, Object>singletonMap(key(id), value), ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 删除缓存及负缓存，数据变更或新增后调用
+     *
+     * @param id
+     */
+    public void evict(Serializable id) {
+        String key = key(id);
+        JedisUtil.deleteKey(key);
+        if (negativeTtlMillis > 0) {
+            JedisUtil.deleteKey(missKey(key));
+        }
+    }
+
+    /**
+     * 批量删除缓存及负缓存
+     *
+     * @param ids
+     */
+    public void evictAll(Collection<? extends Serializable> ids) {
+        List<String> keys = new ArrayList<String>(ids.size() * 2);
+        for (Serializable id : ids) {
+            String key = key(id);
+            keys.add(key);
+            if (negativeTtlMillis > 0) {
+                keys.add(missKey(key));
+            }
+        }
+        JedisUtil.deleteKeys(keys);
+    }
+
+    public String key(Serializable id) {
+        return keyPrefix + id;
+    }
+
+    private static String missKey(String key) {
+        return MISS_KEY_PREFIX + key;
+    }
+
+    /**
+     * 未命中的ID中有负缓存记录的，一次pipeline查询
+     */
+    private Set<String> knownMissing(List<Serializable> ids, Map<String, ExpiringValue> cached) {
+        if (negativeTtlMillis <= 0 || cached.size() == ids.size()) {
+            return Collections.emptySet();
+        }
+        List<String> missKeys = new ArrayList<String>();
+        for (Serializable id : ids) {
+            String key = key(id);
+            if (!cached.containsKey(key)) {
+                missKeys.add(missKey(key));
+            }
+        }
+        return JedisUtil.existKeys(missKeys);
+    }
+
+    /**
+     * XFetch：-loadMillis * beta * ln(random) >= 剩余存活时间 时提前刷新
+     */
+    private boolean shouldRefresh(long remainingMillis) {
+        if (remainingMillis < 0 || beta <= 0 || loadMillis <= 0) {
+            return false;
+        }
+        double random = 1 - ThreadLocalRandom.current().nextDouble();
+        return -loadMillis * beta * Math.log(random) >= remainingMillis;
+    }
+
+    /**
+     * 等待加载结果直到截止时间
+     *
+     * @param stale 是否有旧值可用，有时超时或加载失败返回null由调用方使用旧值
+     */
+    private T join(CompletableFuture<T> future, long deadline, boolean stale) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (stale) {
+                // 提前刷新失败时继续使用旧值，数据库故障不影响仍在缓存中的key
+                log.warn("cache early refresh failed, serve the cached value", e.getCause());
+                return null;
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("cache load failed", e.getCause());
+        } catch (TimeoutException e) {
+            if (stale) {
+                return null;
+            }
+            throw new QueryTimeoutException("cache load timed out after " + loadTimeoutMillis + "ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for cache load", e);
+        }
+    }
+
+    /**
+     * 批量加载，存在的值与不存在ID的负缓存在同一个pipeline中写回
+     */
+    private Map<String, T> loadAndWriteBack(List<String> keys) {
+        List<String> ids = new ArrayList<String>(keys.size());
+        for (String key : keys) {
+            ids.add(key.substring(keyPrefix.length()));
+        }
+        long start = System.nanoTime();
+        Map<Serializable, T> loaded = loader.loadAll(ids);
+        recordLoad(Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        Map<String, T> values = new HashMap<String, T>(loaded.size() * 2);
+        for (Map.Entry<Serializable, T> entry : loaded.entrySet()) {
+            if (entry.getValue() != null) {
+                values.put(key(entry.getKey()), entry.getValue());
+            }
+        }
+        Map<String, Object> writes = new HashMap<String, Object>(keys.size() * 2);
+        Map<String, Long> expireMillis = new HashMap<String, Long>(keys.size() * 2);
+        for (String key : keys) {
+            T value = values.get(key);
+            if (value != null) {
+                writes.put(key, value);
+                expireMillis.put(key, ttlMillis);
+            } else if (negativeTtlMillis > 0) {
+                writes.put(missKey(key), "1");
+                expireMillis.put(missKey(key), negativeTtlMillis);
+            }
+        }
+        JedisUtil.mset(writes, expireMillis);
+        return values;
+    }
+
+    private void recordLoad(long millis) {
+        double current = loadMillis;
+        loadMillis = current <= 0 ? millis : current + EWMA_ALPHA * (millis - current);
+    }
+}
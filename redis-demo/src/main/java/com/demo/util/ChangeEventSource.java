@@ -0,0 +1,34 @@
+package com.demo.util;
+
+import com.demo.entity.ChangeEvent;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * 行变更事件源，按日志位置顺序返回事件
+ * <p>
+ * 应用方处理完一批事件后调用commit，事件源据此决定重启后从哪里继续；
+ * commit之前的事件在重启后可能再次返回，应用方需保证重复应用无副作用。
+ */
+public interface ChangeEventSource extends Closeable {
+
+    /**
+     * 取下一批事件，最多maxEvents个，没有事件时最多等待timeoutMillis
+     *
+     * @param maxEvents
+     * @param timeoutMillis
+     * @return 超时返回空列表
+     */
+    List<ChangeEvent> poll(int maxEvents, long timeoutMillis) throws InterruptedException;
+
+    /**
+     * 确认position及之前的事件已处理
+     *
+     * @param position
+     */
+    void commit(long position);
+
+    @Override
+    void close();
+}
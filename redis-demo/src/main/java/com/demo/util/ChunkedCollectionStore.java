@@ -0,0 +1,298 @@
+package com.demo.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.alibaba.fastjson.JSON;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+/**
+ * 大集合分块存储
+ * <p>
+ * 集合按chunkSize切成多个JSON数组分别存放在 key:版本:序号 下，key本身是记录版本、块数、元素数的清单hash。
+ * 新版本的块写入时带过期时间，全部写完后由Lua脚本按写入器创建时的版本比较并切换清单，同时去掉新块的过期时间、
+ * 让旧版本的块延迟过期，正在读取旧版本的读者不受影响，写入器中途崩溃留下的块也会自行过期；
+ * 读取时按块懒加载，避免一次性把整个集合读入内存，也避免单个大key阻塞Redis。
+ * 切换脚本根据清单key拼出块的key，只适用于单机或哨兵部署。
+ */
+public class ChunkedCollectionStore {
+
+    private static final String VERSION = "version";
+    private static final String CHUNKS = "chunks";
+    private static final String SIZE = "size";
+
+    /**
+     * 旧版本块在切换清单后的保留时间（秒）
+     */
+    private static final int RETIRED_CHUNK_TTL = 60;
+
+    /**
+     * 未提交的块的保留时间（秒），写入器须在此时间内提交
+     */
+    private static final int PENDING_CHUNK_TTL = 3600;
+
+    /**
+     * 清单已被其他写入器切换
+     */
+    private static final long CONFLICT = 0;
+
+    /**
+     * 新版本有块已过期
+     */
+    private static final long CHUNK_MISSING = -1;
+
+    /**
+     * KEYS[1]：清单；ARGV：期望的当前版本（不存在时为空串）、新版本、新版本块数、元素数、旧块保留时间（秒）。
+     * 返回1切换成功，0清单版本已变化，-1新版本有块已过期
+     */
+    private static final RedisScript<Long> COMMIT_SCRIPT = new DefaultRedisScript<Long>(
+            "local current = redis.call('hget', KEYS[1], 'version') "
+                    + "if (current or '') ~= ARGV[1] then return 0 end "
+                    + "local chunks = tonumber(ARGV[3]) "
+                    + "for i = 0, chunks - 1 do "
+                    + "if redis.call('exists', KEYS[1] .. ':' .. ARGV[2] .. ':' .. i) == 0 then return -1 end "
+                    + "end "
+                    + "for i = 0, chunks - 1 do "
+                    + "redis.call('persist', KEYS[1] .. ':' .. ARGV[2] .. ':' .. i) "
+                    + "end "
+                    + "if current then "
+                    + "local old = tonumber(redis.call('hget', KEYS[1], 'chunks') or '0') "
+                    + "for i = 0, old - 1 do "
+                    + "redis.call('expire', KEYS[1] .. ':' .. current .. ':' .. i, ARGV[5]) "
+                    + "end "
+                    + "end "
+                    + "redis.call('hmset', KEYS[1], 'version', ARGV[2], 'chunks', ARGV[3], 'size', ARGV[4]) "
+                    + "return 1", Long.class);
+
+    /**
+     * 写入时攒够多少块提交一次pipeline
+     */
+    private static final int CHUNKS_PER_FLUSH = 8;
+
+    private ChunkedCollectionStore() {
+    }
+
+    /**
+     * 创建写入器，逐批追加元素，commit后对读者可见
+     *
+     * @param key
+     * @param chunkSize 每块的元素数
+     * @return
+     */
+    public static <T> Writer<T> writer(String key, int chunkSize) {
+        return new Writer<T>(key, chunkSize);
+    }
+
+    /**
+     * 整体写入集合
+     *
+     * @param key
+     * @param items
+     * @param chunkSize
+     * @return 写入期间集合已被其他写入器替换时返回false，本次写入被丢弃
+     */
+    public static <T> boolean write(String key, Iterable<T> items, int chunkSize) {
+        Writer<T> writer = writer(key, chunkSize);
+        for (T item : items) {
+            writer.add(item);
+        }
+        return writer.commit();
+    }
+
+    /**
+     * 集合是否存在
+     *
+     * @param key
+     * @return
+     */
+    public static boolean exists(String key) {
+        return JedisUtil.hget(key, VERSION) != null;
+    }
+
+    /**
+     * 集合元素数，不存在时返回0
+     *
+     * @param key
+     * @return
+     */
+    public static long size(String key) {
+        Object size = JedisUtil.getMap(key).get(SIZE);
+        return size == null ? 0 : Long.parseLong(size.toString());
+    }
+
+    /**
+     * 按块懒加载的迭代器，集合不存在时为空
+     *
+     * @param key
+     * @param type
+     * @return
+     */
+    public static <T> Iterator<T> iterator(String key, Class<T> type) {
+        Map<Object, Object> manifest = JedisUtil.getMap(key);
+        if (manifest.get(VERSION) == null) {
+            return Collections.<T>emptyList().iterator();
+        }
+        return new ChunkIterator<T>(key, manifest.get(VERSION).toString(),
+                Integer.parseInt(manifest.get(CHUNKS).toString()), type);
+    }
+
+    /**
+     * 按块懒加载的Stream
+     *
+     * @param key
+     * @param type
+     * @return
+     */
+    public static <T> Stream<T> stream(String key, Class<T> type) {
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(iterator(key, type),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    private static String chunkKey(String key, String version, int index) {
+        return key + ":" + version + ":" + index;
+    }
+
+    /**
+     * 写入器，非线程安全
+     */
+    public static class Writer<T> {
+        private final String key;
+        private final int chunkSize;
+        private final String version;
+        private final String expectedVersion;
+        private final List<T> buffer;
+        private final Map<String, Object> pending = new LinkedHashMap<String, Object>();
+        private final List<String> written = new ArrayList<String>();
+        private long size;
+
+        private Writer(String key, int chunkSize) {
+            Assert.hasText(key, "Parameter 'key' must not be empty.");
+            Assert.isTrue(chunkSize > 0, "Parameter 'chunkSize' must be positive.");
+            this.key = key;
+            this.chunkSize = chunkSize;
+            this.version = String.valueOf(JedisUtil.incrAndGet(key + ":seq"));
+            Object current = JedisUtil.getMap(key).get(VERSION);
+            this.expectedVersion = current == null ? "" : current.toString();
+            this.buffer = new ArrayList<T>(chunkSize);
+        }
+
+        public void add(T item) {
+            buffer.add(item);
+            size++;
+            if (buffer.size() >= chunkSize) {
+                closeChunk();
+            }
+        }
+
+        public void addAll(Iterable<? extends T> items) {
+            for (T item : items) {
+                add(item);
+            }
+        }
+
+        /**
+         * 写入剩余的块并切换清单到新版本
+         *
+         * @return 创建写入器后清单已被其他写入器切换时返回false，本次写入的块被删除
+         * @throws IllegalStateException 未在保留时间内提交，部分块已过期
+         */
+        public boolean commit() {
+            if (!buffer.isEmpty()) {
+                closeChunk();
+            }
+            flush();
+            Long result = JedisUtil.eval(COMMIT_SCRIPT, Collections.singletonList(key), expectedVersion, version,
+                    written.size(), size, RETIRED_CHUNK_TTL);
+            if (result != null && result == CHUNK_MISSING) {
+                abort();
+                throw new IllegalStateException("Chunks of '" + key + "' version " + version
+                        + " expired before commit.");
+            }
+            if (result == null || result == CONFLICT) {
+                abort();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 放弃写入，删除已写入的块
+         */
+        public void abort() {
+            buffer.clear();
+            pending.clear();
+            for (String chunkKey : written) {
+                JedisUtil.deleteKey(chunkKey);
+            }
+            written.clear();
+        }
+
+        private void closeChunk() {
+            String chunkKey = chunkKey(key, version, written.size() + pending.size());
+            pending.put(chunkKey, JSON.toJSONString(buffer));
+            buffer.clear();
+            if (pending.size() >= CHUNKS_PER_FLUSH) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            JedisUtil.mset(pending, PENDING_CHUNK_TTL, TimeUnit.SECONDS);
+            written.addAll(pending.keySet());
+            pending.clear();
+        }
+    }
+
+    private static class ChunkIterator<T> implements Iterator<T> {
+        private final String key;
+        private final String version;
+        private final int chunks;
+        private final Class<T> type;
+        private int nextChunk;
+        private Iterator<T> current = Collections.<T>emptyList().iterator();
+
+        private ChunkIterator(String key, String version, int chunks, Class<T> type) {
+            this.key = key;
+            this.version = version;
+            this.chunks = chunks;
+            this.type = type;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && nextChunk < chunks) {
+                Object json = JedisUtil.get(chunkKey(key, version, nextChunk++));
+                if (json == null) {
+                    throw new IllegalStateException("Chunk " + (nextChunk - 1) + " of '" + key + "' version "
+                            + version + " is missing, the collection was replaced during iteration.");
+                }
+                current = JSON.parseArray(json.toString(), type).iterator();
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.demo.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * 自动pipeline：把并发线程在极短时间窗口内发出的命令合并成一次pipeline提交
+ * <p>
+ * 每个刷写线程独占一个连接，取出队列中的命令后等待一个窗口期再批量提交，
+ * 然后按顺序把各自的返回值交给调用方。只支持有返回值的命令（GET、INCRBY等），
+ * 返回状态码的命令（SET等）在pipeline结果中会被丢弃，不能走这里。
+ * 调用方最多等待timeoutMillis，刷写线程异常退出时不会无限阻塞。
+ */
+public class CommandBatcher {
+    private static final Logger log = LoggerFactory.getLogger(CommandBatcher.class);
+
+    /**
+     * 默认等待命令结果的最长时间（毫秒）
+     */
+    private static final long DEFAULT_TIMEOUT = 3000;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    private final BlockingQueue<Command> queue = new LinkedBlockingQueue<Command>();
+
+    /**
+     * 合并窗口（纳秒）
+     */
+    private final long windowNanos;
+
+    /**
+     * 每次pipeline最多合并的命令数
+     */
+    private final int maxBatchSize;
+
+    /**
+     * 等待命令结果的最长时间（毫秒）
+     */
+    private final long timeoutMillis;
+
+    /**
+     * 入队持有读锁、停止持有写锁，停止之后不会再有命令入队
+     */
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+
+    private final List<Thread> flushers = new ArrayList<Thread>();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param redisTemplate
+     * @param connections   刷写线程数，即同时使用的连接数
+     * @param windowMicros  合并窗口（微秒）
+     * @param maxBatchSize  每次pipeline最多合并的命令数
+     * @param timeoutMillis 等待命令结果的最长时间（毫秒），不大于0时使用默认值
+     */
+    public CommandBatcher(RedisTemplate<String, Object> redisTemplate, int connections, long windowMicros, int maxBatchSize,
+                          long timeoutMillis) {
+        this.redisTemplate = redisTemplate;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatchSize = maxBatchSize;
+        this.timeoutMillis = timeoutMillis > 0 ? timeoutMillis : DEFAULT_TIMEOUT;
+        for (int i = 0; i < connections; i++) {
+            Thread flusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "redis-auto-pipeline-" + i);
+            flusher.setDaemon(true);
+            flusher.start();
+            flushers.add(flusher);
+        }
+    }
+
+    /**
+     * 提交命令，返回该命令的结果
+     *
+     * @param command
+     * @return
+     */
+    public CompletableFuture<Object> submit(Command command) {
+        stateLock.readLock().lock();
+        try {
+            if (!running) {
+                command.future.completeExceptionally(new IllegalStateException("CommandBatcher has been shut down."));
+            } else {
+                queue.add(command);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        return command.future;
+    }
+
+    /**
+     * 提交命令并等待结果
+     *
+     * @param command
+     * @return
+     */
+    public Object execute(Command command) {
+        try {
+            return submit(command).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RedisSystemException("redis auto pipeline command failed", e.getCause());
+        } catch (TimeoutException e) {
+            // 还未提交的命令不再提交
+            queue.remove(command);
+            throw new QueryTimeoutException("redis auto pipeline command timed out after " + timeoutMillis + "ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queue.remove(command);
+            throw new RedisSystemException("interrupted while waiting for redis auto pipeline", e);
+        }
+    }
+
+    /**
+     * 停止接收命令，已入队的命令提交完成后刷写线程退出，未能提交的命令以异常结束
+     */
+    public void shutdown() {
+        stateLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        try {
+            for (Thread flusher : flushers) {
+                flusher.join(TimeUnit.SECONDS.toMillis(5));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Command> remaining = new ArrayList<Command>();
+        queue.drainTo(remaining);
+        for (Command command : remaining) {
+            command.future.completeExceptionally(new IllegalStateException("CommandBatcher has been shut down."));
+        }
+    }
+
+    private void loop() {
+        List<Command> batch = new ArrayList<Command>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Command first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                if (windowNanos > 0 && queue.size() < maxBatchSize - 1) {
+                    LockSupport.parkNanos(windowNanos);
+                }
+                queue.drainTo(batch, maxBatchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(final List<Command> batch) {
+        try {
+            List<Object> results = redisTemplate.executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (Command command : batch) {
+                        command.issue(connection);
+                    }
+                    return null;
+                }
+            });
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(results.get(i));
+            }
+        } catch (RedisPipelineException e) {
+            completeEach(batch, e);
+        } catch (Exception e) {
+            log.error("redis auto pipeline flush error, batch size: " + batch.size(), e);
+            for (Command command : batch) {
+                command.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 个别命令返回错误时整个pipeline抛出异常，按各自的结果结束：出错的命令以异常结束，其余正常返回
+     */
+    private void completeEach(List<Command> batch, RedisPipelineException e) {
+        List<Object> results = e.getPipelineResult();
+        if (results == null || results.size() != batch.size()) {
+            log.error("redis auto pipeline flush error, batch size: " + batch.size(), e);
+            for (Command command : batch) {
+                command.future.completeExceptionally(e);
+            }
+            return;
+        }
+        RedisSerializer<?> valueSerializer = redisTemplate.getValueSerializer();
+        for (int i = 0; i < batch.size(); i++) {
+            Object result = results.get(i);
+            if (result instanceof Throwable) {
+                batch.get(i).future.completeExceptionally((Throwable) result);
+            } else if (result instanceof byte[] && valueSerializer != null) {
+                batch.get(i).future.complete(valueSerializer.deserialize((byte[]) result));
+            } else {
+                batch.get(i).future.complete(result);
+            }
+        }
+    }
+
+    /**
+     * 可合并提交的命令，issue中必须且只能发出一条有返回值的命令
+     */
+    public abstract static class Command {
+        private final CompletableFuture<Object> future = new CompletableFuture<Object>();
+
+        protected abstract void issue(RedisConnection connection);
+    }
+}
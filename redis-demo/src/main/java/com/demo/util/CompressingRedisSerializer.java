@@ -0,0 +1,112 @@
+package com.demo.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * 压缩大value的序列化包装
+ * <p>
+ * 序列化结果超过阈值时以最快级别deflate压缩，并写入头字节0xC1与原始长度；
+ * 0xC1在UTF-8中不会出现，未压缩的旧数据可原样交给被包装的序列化方式读取。
+ * 压缩后的数据只有本包装能读取，只应用于按前缀启用压缩的key。
+ */
+public class CompressingRedisSerializer<T> implements RedisSerializer<T> {
+
+    /**
+     * 压缩数据的头字节
+     */
+    static final byte COMPRESSED = (byte) 0xC1;
+
+    /**
+     * 压缩前的最大长度，更大的value不压缩；解压时头部声明的长度超过该值视为数据损坏
+     */
+    static final int MAX_LENGTH = 64 * 1024 * 1024;
+
+    private final RedisSerializer<T> delegate;
+
+    /**
+     * 超过该字节数才压缩
+     */
+    private final int threshold;
+
+    public CompressingRedisSerializer(RedisSerializer<T> delegate, int threshold) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public byte[] serialize(T value) throws SerializationException {
+        byte[] bytes = delegate.serialize(value);
+        if (bytes == null || bytes.length < threshold || bytes.length > MAX_LENGTH) {
+            return bytes;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 8);
+            out.write(COMPRESSED);
+            for (int length = bytes.length; ; length >>>= 7) {
+                if ((length & ~0x7F) == 0) {
+                    out.write(length);
+                    break;
+                }
+                out.write((length & 0x7F) | 0x80);
+            }
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            // 压缩后没有变小则保留原始数据
+            return out.size() < bytes.length ? out.toByteArray() : bytes;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0 || bytes[0] != COMPRESSED) {
+            return delegate.deserialize(bytes);
+        }
+        int position = 1;
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (position >= bytes.length || shift > 28) {
+                throw new SerializationException("Cannot decompress redis value: malformed header.");
+            }
+            byte b = bytes[position++];
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new SerializationException("Cannot decompress redis value: invalid length " + length + ".");
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(bytes, position, bytes.length - position);
+            byte[] result = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int count = inflater.inflate(result, offset, length - offset);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new SerializationException("Cannot decompress redis value: truncated data.");
+                }
+                offset += count;
+            }
+            return delegate.deserialize(result);
+        } catch (DataFormatException e) {
+            throw new SerializationException("Cannot decompress redis value.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
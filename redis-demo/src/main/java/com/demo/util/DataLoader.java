@@ -0,0 +1,210 @@
+package com.demo.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量加载器（DataLoader）
+ * <p>
+ * 一次调用或一个合并窗口内请求的key去重后合并为一次批量加载；正在排队或加载中的key再次请求时共享同一个结果，
+ * 同一个key同时只加载一次。窗口为0时只合并同一次调用中的key，在调用线程中立即加载；
+ * 窗口大于0时，排队的key达到maxBatchSize时在调用线程中加载，否则窗口结束时交给有界的加载线程池；
+ * 定时线程只负责计时，不执行加载，一个慢查询不会拖住其他批次。线程池排满时该批次直接失败。
+ */
+public class DataLoader<K, V> {
+
+    /**
+     * 批量数据源
+     */
+    public interface BatchFunction<K, V> {
+        /**
+         * @param keys 去重后的key
+         * @return key -> 值，不存在的key不包含在结果中
+         */
+        Map<K, V> loadAll(List<K> keys);
+    }
+
+    /**
+     * 加载线程数与排队的批次数上限
+     */
+    private static final int LOADER_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final int LOADER_QUEUE_SIZE = 1024;
+
+    private static final ScheduledExecutorService DISPATCHER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "data-loader-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final ExecutorService LOADERS = new ThreadPoolExecutor(LOADER_THREADS, LOADER_THREADS,
+            60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(LOADER_QUEUE_SIZE), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "data-loader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        ((ThreadPoolExecutor) LOADERS).allowCoreThreadTimeOut(true);
+    }
+
+    private final BatchFunction<K, V> function;
+
+    private final long windowMillis;
+
+    private final int maxBatchSize;
+
+    /**
+     * 排队与加载中的key
+     */
+    private final ConcurrentHashMap<K, CompletableFuture<V>> futures = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+    /**
+     * 排队等待加载的key
+     */
+    private List<K> queue = new ArrayList<K>();
+
+    private boolean scheduled;
+
+    private final Runnable dispatchTask = new Runnable() {
+        @Override
+        public void run() {
+            final List<K> batch;
+            synchronized (DataLoader.this) {
+                batch = queue;
+                queue = new ArrayList<K>();
+                scheduled = false;
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                LOADERS.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(batch);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                fail(batch, e);
+            }
+        }
+    };
+
+    /**
+     * @param function
+     * @param windowMillis 合并窗口，0为只合并同一次调用中的key
+     * @param maxBatchSize 每次批量加载的最大key数
+     */
+    public DataLoader(BatchFunction<K, V> function, long windowMillis, int maxBatchSize) {
+        this.function = function;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public CompletableFuture<V> load(K key) {
+        return loadMany(Collections.singletonList(key)).get(key);
+    }
+
+    /**
+     * 请求加载多个key
+     *
+     * @param keys
+     * @return key -> 加载结果，不存在时结果为null
+     */
+    public Map<K, CompletableFuture<V>> loadMany(Collection<K> keys) {
+        Map<K, CompletableFuture<V>> result = new LinkedHashMap<K, CompletableFuture<V>>();
+        List<K> owned = new ArrayList<K>();
+        for (K key : keys) {
+            if (result.containsKey(key)) {
+                continue;
+            }
+            CompletableFuture<V> future = new CompletableFuture<V>();
+            CompletableFuture<V> existing = futures.putIfAbsent(key, future);
+            if (existing != null) {
+                result.put(key, existing);
+            } else {
+                result.put(key, future);
+                owned.add(key);
+            }
+        }
+        if (!owned.isEmpty()) {
+            enqueue(owned);
+        }
+        return result;
+    }
+
+    private void enqueue(List<K> keys) {
+        if (windowMillis <= 0) {
+            dispatch(keys);
+            return;
+        }
+        List<K> full = null;
+        boolean schedule = false;
+        synchronized (this) {
+            queue.addAll(keys);
+            if (queue.size() >= maxBatchSize) {
+                full = queue;
+                queue = new ArrayList<K>();
+            } else if (!scheduled) {
+                scheduled = true;
+                schedule = true;
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        } else if (schedule) {
+            DISPATCHER.schedule(dispatchTask, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void dispatch(List<K> keys) {
+        for (int i = 0; i < keys.size(); i += maxBatchSize) {
+            List<K> batch = keys.subList(i, Math.min(i + maxBatchSize, keys.size()));
+            try {
+                Map<K, V> values = function.loadAll(batch);
+                for (K key : batch) {
+                    complete(key).complete(values.get(key));
+                }
+            } catch (Throwable e) {
+                fail(batch, e);
+            }
+        }
+    }
+
+    private void fail(List<K> keys, Throwable e) {
+        for (K key : keys) {
+            complete(key).completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 从加载中移除，之后的请求会重新加载
+     */
+    private CompletableFuture<V> complete(K key) {
+        return futures.remove(key);
+    }
+}
@@ -0,0 +1,126 @@
+package com.demo.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 实体插入监听
+ * <p>
+ * 在Executor层拦截INSERT，service的save、saveBatch、saveOrUpdate和直接调用mapper的插入都会经过这里。
+ * 监听器在事务提交后收到新行的主键，回滚时不会收到；批量执行器在flush后才回填主键，
+ * 不在事务中且主键尚未回填的插入等到flushStatements后再通知。
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class, method = "flushStatements", args = {})
+})
+public class EntityInsertInterceptor implements Interceptor {
+
+    public interface Listener {
+        /**
+         * 插入已提交
+         *
+         * @param id 新行的主键
+         */
+        void afterInsert(Serializable id);
+    }
+
+    private final Map<Class<?>, Listener> listeners = new ConcurrentHashMap<Class<?>, Listener>();
+
+    /**
+     * 等待批量执行器flush回填主键的插入
+     */
+    private final ThreadLocal<List<Object[]>> pending = new ThreadLocal<List<Object[]>>() {
+        @Override
+        protected List<Object[]> initialValue() {
+            return new ArrayList<Object[]>();
+        }
+    };
+
+    /**
+     * 监听一种实体的插入，同一实体只保留最后注册的监听器
+     *
+     * @param type
+     * @param listener
+     */
+    public void register(Class<?> type, Listener listener) {
+        listeners.put(type, listener);
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object result = invocation.proceed();
+        if ("flushStatements".equals(invocation.getMethod().getName())) {
+            List<Object[]> flushed = pending.get();
+            pending.remove();
+            for (Object[] insert : flushed) {
+                dispatch((MappedStatement) insert[0], insert[1]);
+            }
+            return result;
+        }
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        Object parameter = invocation.getArgs()[1];
+        if (ms.getSqlCommandType() != SqlCommandType.INSERT || parameter == null
+                || !listeners.containsKey(parameter.getClass())) {
+            return result;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive() && keyOf(ms, parameter) == null) {
+            pending.get().add(new Object[]{ms, parameter});
+        } else {
+            dispatch(ms, parameter);
+        }
+        return result;
+    }
+
+    /**
+     * 提交后通知，提交时批量执行器已flush，主键在通知时读取
+     */
+    private void dispatch(final MappedStatement ms, final Object parameter) {
+        final Listener listener = listeners.get(parameter.getClass());
+        TransactionalCache.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                Serializable id = keyOf(ms, parameter);
+                if (id != null) {
+                    listener.afterInsert(id);
+                }
+            }
+        });
+    }
+
+    private static Serializable keyOf(MappedStatement ms, Object parameter) {
+        String[] keyProperties = ms.getKeyProperties();
+        if (keyProperties == null || keyProperties.length == 0) {
+            return null;
+        }
+        MetaObject metaObject = ms.getConfiguration().newMetaObject(parameter);
+        if (!metaObject.hasGetter(keyProperties[0])) {
+            return null;
+        }
+        return (Serializable) metaObject.getValue(keyProperties[0]);
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        return target instanceof Executor ? Plugin.wrap(target, this) : target;
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+}
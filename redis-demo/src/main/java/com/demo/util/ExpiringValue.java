@@ -0,0 +1,29 @@
+package com.demo.util;
+
+/**
+ * 值及其在Redis中的剩余存活时间
+ */
+public class ExpiringValue {
+
+    private final Object value;
+
+    private final long ttlMillis;
+
+    public ExpiringValue(Object value, long ttlMillis) {
+        this.value = value;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * 剩余存活时间（毫秒），-1为永久
+     *
+     * @return
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+}
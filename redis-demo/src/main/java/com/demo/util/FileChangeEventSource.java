@@ -0,0 +1,165 @@
+package com.demo.util;
+
+import com.alibaba.fastjson.JSON;
+import com.demo.entity.ChangeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * 从本地文件读取变更事件，每行一个JSON格式的 {@link ChangeEvent}，文件只追加
+ * <p>
+ * 读到文件末尾后按间隔继续读取新追加的行，末尾不完整的行等写完后再读；
+ * commit时把已确认事件之后的文件偏移写入 {file}.offset，重启后从该偏移继续。
+ * 无法解析或缺少位置的行记录日志后跳过。
+ */
+public class FileChangeEventSource implements ChangeEventSource {
+    private static final Logger log = LoggerFactory.getLogger(FileChangeEventSource.class);
+
+    /**
+     * 读到文件末尾后再次检查的间隔（毫秒）
+     */
+    private static final long TAIL_INTERVAL = 100;
+
+    private final File file;
+
+    private final File offsetFile;
+
+    /**
+     * 下一次读取的文件偏移
+     */
+    private long readOffset;
+
+    /**
+     * 已读取未确认的事件位置 -> 该事件所在行之后的文件偏移
+     */
+    private final NavigableMap<Long, Long> pendingOffsets = new TreeMap<Long, Long>();
+
+    public FileChangeEventSource(String path) {
+        this.file = new File(path);
+        this.offsetFile = new File(path + ".offset");
+        this.readOffset = loadOffset();
+    }
+
+    @Override
+    public synchronized List<ChangeEvent> poll(int maxEvents, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            List<ChangeEvent> events = read(maxEvents);
+            long remaining = deadline - System.currentTimeMillis();
+            if (!events.isEmpty() || remaining <= 0) {
+                return events;
+            }
+            Thread.sleep(Math.min(remaining, TAIL_INTERVAL));
+        }
+    }
+
+    @Override
+    public synchronized void commit(long position) {
+        NavigableMap<Long, Long> committed = pendingOffsets.headMap(position, true);
+        if (committed.isEmpty()) {
+            return;
+        }
+        long offset = committed.lastEntry().getValue();
+        committed.clear();
+        try {
+            File tmp = new File(offsetFile.getPath() + ".tmp");
+            Files.write(tmp.toPath(), String.valueOf(offset).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), offsetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 偏移未保存只会导致重启后重复读取
+            log.warn("save change event offset of '" + file + "' error", e);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * 从readOffset读取最多maxEvents个完整的行
+     */
+    private List<ChangeEvent> read(int maxEvents) {
+        List<ChangeEvent> events = new ArrayList<ChangeEvent>();
+        if (!file.isFile() || file.length() <= readOffset) {
+            return events;
+        }
+        FileInputStream fileIn = null;
+        try {
+            fileIn = new FileInputStream(file);
+            fileIn.getChannel().position(readOffset);
+            InputStream in = new BufferedInputStream(fileIn);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while (events.size() < maxEvents && (b = in.read()) != -1) {
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                readOffset += line.size() + 1;
+                ChangeEvent event = parse(new String(line.toByteArray(), StandardCharsets.UTF_8).trim());
+                line.reset();
+                if (event != null) {
+                    events.add(event);
+                    pendingOffsets.put(event.getPosition(), readOffset);
+                }
+            }
+        } catch (IOException e) {
+            log.error("read change events from '" + file + "' error", e);
+        } finally {
+            if (fileIn != null) {
+                try {
+                    fileIn.close();
+                } catch (IOException e) {
+                    log.warn("close '" + file + "' error", e);
+                }
+            }
+        }
+        return events;
+    }
+
+    private ChangeEvent parse(String line) {
+        if (line.isEmpty()) {
+            return null;
+        }
+        try {
+            ChangeEvent event = JSON.parseObject(line, ChangeEvent.class);
+            if (event.getPosition() != null) {
+                return event;
+            }
+        } catch (Exception e) {
+            log.warn("change event cannot be parsed: " + line, e);
+            return null;
+        }
+        log.warn("change event without position is skipped: " + line);
+        return null;
+    }
+
+    private long loadOffset() {
+        if (!offsetFile.isFile()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(offsetFile.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            log.warn("change event offset of '" + file + "' cannot be loaded, read from beginning", e);
+            return 0;
+        } catch (NumberFormatException e) {
+            log.warn("change event offset of '" + file + "' cannot be loaded, read from beginning", e);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.demo.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+/**
+ * 本地预检的近似全局限流（固定窗口）
+ * <p>
+ * 每个节点在本地记录窗口内已同步的全局计数和尚未同步的本地计数：
+ * 远离上限时只在本地计数，不访问Redis；本地计数定期以pipeline批量INCRBY同步到Redis，并取回全局计数；
+ * 本地估算已达上限时直接拒绝（窗口内计数只增不减）；接近上限或本地未同步计数超过maxLocalUnsynced时，
+ * 带上未同步的计数走一次精确的脚本检查。
+ * <p>
+ * 每个节点未同步的计数不超过maxLocalUnsynced，全局最多超出约 节点数 * maxLocalUnsynced 次。
+ * 与 {@link RateLimiter} 的固定窗口规则使用相同的计数器，可以混用。
+ */
+public class HybridRateLimiter {
+    private static final Logger log = LoggerFactory.getLogger(HybridRateLimiter.class);
+
+    /**
+     * KEYS[1]：窗口计数器；ARGV：未同步的计数、本次数量、上限、窗口（毫秒）
+     * 返回{是否允许, 计数器当前值}
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> EXACT_SCRIPT = new DefaultRedisScript<List>(
+            "local used = redis.call('incrby', KEYS[1], ARGV[1]) "
+                    + "local allowed = 0 "
+                    + "if used + tonumber(ARGV[2]) <= tonumber(ARGV[3]) then "
+                    + "  used = redis.call('incrby', KEYS[1], ARGV[2]) "
+                    + "  allowed = 1 "
+                    + "end "
+                    + "if redis.call('pttl', KEYS[1]) < 0 then redis.call('pexpire', KEYS[1], ARGV[4]) end "
+                    + "return {allowed, used}", List.class);
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    /**
+     * 每个key本地未同步的最大计数
+     */
+    private final long maxLocalUnsynced;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param syncIntervalMillis 同步间隔
+     * @param maxLocalUnsynced   每个key本地未同步的最大计数，即每个节点的误差上限
+     */
+    public HybridRateLimiter(long syncIntervalMillis, long maxLocalUnsynced) {
+        this.maxLocalUnsynced = maxLocalUnsynced;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "rate-limit-sync");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sync();
+                } catch (Exception e) {
+                    log.error("rate limit sync error, counts will be retried", e);
+                }
+            }
+        }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 检查并扣减permits次
+     *
+     * @param limit   固定窗口规则
+     * @param permits
+     * @return
+     */
+    public RateLimitResult tryAcquire(RateLimit limit, int permits) {
+        Assert.isTrue(limit.getAlgorithm() == RateLimit.Algorithm.FIXED_WINDOW, "Only fixed window limits are supported.");
+        Assert.isTrue(permits > 0, "Parameter 'permits' must be positive.");
+        long now = System.currentTimeMillis();
+        Counter counter = counter(limit, now);
+        while (true) {
+            long synced = counter.synced;
+            long pending = counter.unsynced.get();
+            if (synced + permits > limit.getLimit()) {
+                // 已同步的全局计数已经超过上限，窗口内不会再减少
+                return new RateLimitResult(false, Math.max(0, limit.getLimit() - synced), counter.windowEnd - now);
+            }
+            long estimate = synced + pending + permits;
+            if (estimate + maxLocalUnsynced > limit.getLimit() || pending + permits > maxLocalUnsynced) {
+                return exact(counter, limit, permits, now);
+            }
+            if (counter.unsynced.compareAndSet(pending, pending + permits)) {
+                return new RateLimitResult(true, limit.getLimit() - estimate, 0);
+            }
+        }
+    }
+
+    /**
+     * 把本地计数同步到Redis并取回全局计数，丢弃已结束窗口的计数器
+     */
+    public void sync() {
+        long now = System.currentTimeMillis();
+        Map<String, Long> deltas = new HashMap<String, Long>();
+        Map<String, Long> expireMillis = new HashMap<String, Long>();
+        for (Counter counter : counters.values()) {
+            if (counter.windowEnd <= now) {
+                counters.remove(counter.redisKey, counter);
+                continue;
+            }
+            deltas.put(counter.redisKey, counter.unsynced.getAndSet(0));
+            expireMillis.put(counter.redisKey, counter.windowMillis);
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Map<String, Long> values;
+        try {
+            values = JedisUtil.incrBy(deltas, expireMillis);
+        } catch (RuntimeException e) {
+            for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+                Counter counter = counters.get(delta.getKey());
+                if (counter != null) {
+                    counter.unsynced.addAndGet(delta.getValue());
+                }
+            }
+            throw e;
+        }
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            Counter counter = counters.get(value.getKey());
+            if (counter != null && value.getValue() != null) {
+                counter.synced(value.getValue());
+            }
+        }
+    }
+
+    /**
+     * 停止定时同步并同步剩余的计数
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sync();
+    }
+
+    private RateLimitResult exact(Counter counter, RateLimit limit, int permits, long now) {
+        long pending = counter.unsynced.getAndSet(0);
+        List<?> result;
+        try {
+            result = JedisUtil.eval(EXACT_SCRIPT, Collections.singletonList(counter.redisKey),
+                    pending, permits, limit.getLimit(), limit.getWindowMillis());
+        } catch (RuntimeException e) {
+            counter.unsynced.addAndGet(pending);
+            throw e;
+        }
+        boolean allowed = ((Number) result.get(0)).intValue() == 1;
+        long used = ((Number) result.get(1)).longValue();
+        counter.synced(used);
+        return new RateLimitResult(allowed, Math.max(0, limit.getLimit() - used), allowed ? 0 : counter.windowEnd - now);
+    }
+
+    private Counter counter(RateLimit limit, long now) {
+        String redisKey = limit.redisKeys(now)[0];
+        Counter counter = counters.get(redisKey);
+        if (counter == null) {
+            long windowMillis = limit.getWindowMillis();
+            Counter created = new Counter(redisKey, windowMillis, (now / windowMillis + 1) * windowMillis);
+            counter = counters.putIfAbsent(redisKey, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    private static class Counter {
+        private final String redisKey;
+        private final long windowMillis;
+        private final long windowEnd;
+        /**
+         * 最近一次同步得到的全局计数，已包含本节点同步过的计数
+         */
+        private volatile long synced;
+        private final AtomicLong unsynced = new AtomicLong();
+
+        private Counter(String redisKey, long windowMillis, long windowEnd) {
+            this.redisKey = redisKey;
+            this.windowMillis = windowMillis;
+            this.windowEnd = windowEnd;
+        }
+
+        private synchronized void synced(long value) {
+            if (value > synced) {
+                synced = value;
+            }
+        }
+    }
+}
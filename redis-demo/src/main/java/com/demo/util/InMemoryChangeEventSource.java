@@ -0,0 +1,72 @@
+package com.demo.util;
+
+import com.demo.entity.ChangeEvent;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的变更事件源，由publish直接投递事件，用于测试或与本地写入方对接
+ */
+public class InMemoryChangeEventSource implements ChangeEventSource {
+
+    private final BlockingQueue<ChangeEvent> queue = new LinkedBlockingQueue<ChangeEvent>();
+
+    private volatile long committedPosition = -1;
+
+    /**
+     * 投递一个事件，调用方保证按位置顺序投递
+     *
+     * @param event
+     */
+    public void publish(ChangeEvent event) {
+        Assert.notNull(event, "Parameter 'event' must not be null.");
+        Assert.notNull(event.getPosition(), "Parameter 'event.position' must not be null.");
+        queue.add(event);
+    }
+
+    @Override
+    public List<ChangeEvent> poll(int maxEvents, long timeoutMillis) throws InterruptedException {
+        ChangeEvent first = queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        List<ChangeEvent> events = new ArrayList<ChangeEvent>();
+        events.add(first);
+        queue.drainTo(events, maxEvents - 1);
+        return events;
+    }
+
+    @Override
+    public void commit(long position) {
+        committedPosition = position;
+    }
+
+    /**
+     * 已确认处理的位置，没有时为-1
+     *
+     * @return
+     */
+    public long getCommittedPosition() {
+        return committedPosition;
+    }
+
+    /**
+     * 尚未取走的事件数
+     *
+     * @return
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() {
+        queue.clear();
+    }
+}
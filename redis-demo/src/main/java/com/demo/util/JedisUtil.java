@@ -10,12 +10,14 @@ import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.data.redis.support.atomic.RedisAtomicLong;
 import org.springframework.util.Assert;
 
-import org.springframework.util.StringUtils;
-import redis.clients.jedis.JedisCommands;
-
 /**
  * Jedis工具类
  *
@@ -32,6 +34,66 @@ public class JedisUtil {
     private static volatile boolean hasInit = false;
 
     private static RedisTemplate<String, Object> redisTemplate;
+
+    /**
+     * 进程内一级缓存，为null时不启用
+     */
+    private static volatile NearCache nearCache;
+
+    /**
+     * 批量操作每次pipeline提交的key数量
+     */
+    private static volatile int batchSize = 100;
+
+    /**
+     * 自动pipeline，为null时不启用
+     */
+    private static volatile CommandBatcher commandBatcher;
+
+    /**
+     * 按key前缀选择的value序列化方式
+     */
+    private static final PrefixSerializerRegistry serializerRegistry = new PrefixSerializerRegistry();
+
+    /**
+     * 原样返回字节，用于pipeline中按key分别反序列化
+     */
+    private static final RedisSerializer<byte[]> RAW_SERIALIZER = new RedisSerializer<byte[]>() {
+        @Override
+        public byte[] serialize(byte[] bytes) {
+            return bytes;
+        }
+
+        @Override
+        public byte[] deserialize(byte[] bytes) {
+            return bytes;
+        }
+    };
+
+    /**
+     * 脚本参数按字符串传递
+     */
+    private static final StringRedisSerializer SCRIPT_ARGS_SERIALIZER = new StringRedisSerializer();
+
+    /**
+     * KEYS[1]：唯一标记，其余为有序集合；ARGV[1]：标记保留时间，
+     * 之后每个有序集合依次为成员数、失效时间（不大于0不设置）、成员与增量
+     */
+    private static final RedisScript<Long> INCREMENT_SCORES_ONCE_SCRIPT = new DefaultRedisScript<Long>(
+            "if not redis.call('set', KEYS[1], '1', 'NX', 'PX', ARGV[1]) then return 0 end "
+                    + "local a = 2 "
+                    + "for i = 2, #KEYS do "
+                    + "  local n = tonumber(ARGV[a]) "
+                    + "  local expire = tonumber(ARGV[a + 1]) "
+                    + "  a = a + 2 "
+                    + "  for j = 1, n do "
+                    + "    redis.call('zincrby', KEYS[i], ARGV[a + 1], ARGV[a]) "
+                    + "    a = a + 2 "
+                    + "  end "
+                    + "  if expire > 0 then redis.call('pexpire', KEYS[i], expire) end "
+                    + "end "
+                    + "return 1", Long.class);
+
     //默认锁存活时间
     private static final long DEFAULT_WAIT_LOCK_TIME_OUT = 60000;
 
@@ -51,18 +113,79 @@ public class JedisUtil {
         }
     }
 
+    /**
+     * 启用进程内一级缓存，传null则关闭
+     *
+     * @param nearCache
+     */
+    public static void setNearCache(NearCache nearCache) {
+        JedisUtil.nearCache = nearCache;
+    }
+
+    /**
+     * 启用自动pipeline，get（未启用一级缓存时）与decr的并发调用会被合并提交，传null则关闭
+     *
+     * @param commandBatcher
+     */
+    public static void setCommandBatcher(CommandBatcher commandBatcher) {
+        JedisUtil.commandBatcher = commandBatcher;
+    }
+
+    /**
+     * 为指定前缀的key注册value序列化方式，get/set/mget/mset对匹配的key使用该方式读写
+     *
+     * @param prefix
+     * @param serializer
+     */
+    public static void registerSerializer(String prefix, RedisSerializer<?> serializer) {
+        Assert.hasText(prefix, "Parameter 'prefix' must not be empty.");
+        Assert.notNull(serializer, "Parameter 'serializer' must not be null.");
+        serializerRegistry.register(prefix, serializer);
+    }
+
+    /**
+     * 获取进程内一级缓存，未启用时返回null
+     *
+     * @return
+     */
+    public static NearCache getNearCache() {
+        return nearCache;
+    }
+
     /**
      * 根据key与hashKey获取其关联的值
      *
      * @param key
      * @param hashKey
      */
-    public static Object hget(String key, Object hashKey) {
+    public static Object hget(final String key, final Object hashKey) {
         if (StringUtil.isEmpty(key) || hashKey == null) {
             return null;
         }
 
-        return getRedisTemplate().opsForHash().get(key, hashKey);
+        NearCache cache = nearCache;
+        if (cache == null) {
+            return getRedisTemplate().opsForHash().get(key, hashKey);
+        }
+        Object value = cache.hget(key, hashKey);
+        if (value != null) {
+            return value;
+        }
+        // 值与剩余存活时间在同一次往返中取回
+        long version = cache.version();
+        final RedisTemplate<String, Object> template = getRedisTemplate();
+        List<Object> results = template.executePipelined(new RedisCallback<Object>() {
+            @Override
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                byte[] rawKey = rawKey(key);
+                connection.hGet(rawKey, rawHashKey(hashKey));
+                connection.pTtl(rawKey);
+                return null;
+            }
+        }, template.getHashValueSerializer());
+        value = results.get(0);
+        cache.hput(key, hashKey, value, (Long) results.get(1), version);
+        return value;
     }
 
     /**
@@ -91,6 +214,7 @@ public class JedisUtil {
         Assert.hasText(key, NOT_HAS_TEXT);
         Assert.notNull(hashKey, "Parameter 'hashKey' must not be null.");
         getRedisTemplate().opsForHash().put(key, hashKey, value);
+        invalidate(key, hashKey);
     }
 
     /**
@@ -104,6 +228,7 @@ public class JedisUtil {
         Assert.hasText(key, NOT_HAS_TEXT);
         Assert.notNull(hashKey, "Parameter 'hashKey' must not be null.");
         getRedisTemplate().opsForHash().putIfAbsent(key, hashKey, value);
+        invalidate(key, hashKey);
     }
 
     /**
@@ -116,6 +241,7 @@ public class JedisUtil {
         Assert.hasText(key, NOT_HAS_TEXT);
         Assert.notNull(map, "Parameter 'map' must not be null.");
         getRedisTemplate().opsForHash().putAll(key, map);
+        invalidate(key);
     }
 
     /**
@@ -131,6 +257,7 @@ public class JedisUtil {
             return false;
         }
 
+        invalidate(key);
         return getRedisTemplate().expire(key, timeout, unit);
     }
 
@@ -140,9 +267,20 @@ public class JedisUtil {
      * @param key
      * @param value
      */
-    public static void set(String key, Object value) {
+    public static void set(final String key, final Object value) {
         Assert.hasText(key, NOT_HAS_TEXT);
-        getRedisTemplate().opsForValue().set(key, value);
+        if (serializerRegistry.getSerializer(key) != null) {
+            getRedisTemplate().execute(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    connection.set(rawKey(key), rawValue(key, value));
+                    return null;
+                }
+            });
+        } else {
+            getRedisTemplate().opsForValue().set(key, value);
+        }
+        invalidate(key);
     }
 
     /**
@@ -154,6 +292,7 @@ public class JedisUtil {
     public static void setMap(String key, Map value) {
         Assert.hasText(key, NOT_HAS_TEXT);
         getRedisTemplate().opsForHash().putAll(key, value);
+        invalidate(key);
     }
 
     /**
@@ -162,9 +301,20 @@ public class JedisUtil {
      * @param key
      * @param value
      */
-    public static void set(String key, Object value, int time) {
+    public static void set(final String key, final Object value, final int time) {
         Assert.hasText(key, NOT_HAS_TEXT);
-        getRedisTemplate().opsForValue().set(key, value, time, TimeUnit.SECONDS);
+        if (serializerRegistry.getSerializer(key) != null) {
+            getRedisTemplate().execute(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    connection.setEx(rawKey(key), time, rawValue(key, value));
+                    return null;
+                }
+            });
+        } else {
+            getRedisTemplate().opsForValue().set(key, value, time, TimeUnit.SECONDS);
+        }
+        invalidate(key);
     }
 
     /**
@@ -176,6 +326,7 @@ public class JedisUtil {
     public static void expire(String key, int time) {
         Assert.hasText(key, NOT_HAS_TEXT);
         Boolean expire = getRedisTemplate().expire(key, time, TimeUnit.SECONDS);
+        invalidate(key);
     }
 
 
@@ -195,12 +346,51 @@ public class JedisUtil {
      * @param key
      * @return
      */
-    public static Object get(String key) {
+    public static Object get(final String key) {
         if (StringUtil.isEmpty(key)) {
             return null;
         }
 
-        return getRedisTemplate().opsForValue().get(key);
+        NearCache cache = nearCache;
+        if (cache == null && serializerRegistry.getSerializer(key) != null) {
+            byte[] bytes = getRedisTemplate().execute(new RedisCallback<byte[]>() {
+                @Override
+                public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
+                    return connection.get(rawKey(key));
+                }
+            });
+            return deserializeValue(key, bytes);
+        }
+        if (cache == null) {
+            CommandBatcher batcher = commandBatcher;
+            if (batcher != null) {
+                return batcher.execute(new CommandBatcher.Command() {
+                    @Override
+                    protected void issue(RedisConnection connection) {
+                        connection.get(rawKey(key));
+                    }
+                });
+            }
+            return getRedisTemplate().opsForValue().get(key);
+        }
+        Object value = cache.get(key);
+        if (value != null) {
+            return value;
+        }
+        // 值与剩余存活时间在同一次往返中取回
+        long version = cache.version();
+        List<Object> results = getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+            @Override
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                byte[] rawKey = rawKey(key);
+                connection.get(rawKey);
+                connection.pTtl(rawKey);
+                return null;
+            }
+        }, RAW_SERIALIZER);
+        value = deserializeValue(key, (byte[]) results.get(0));
+        cache.put(key, value, (Long) results.get(1), version);
+        return value;
     }
 
     /**
@@ -212,14 +402,82 @@ public class JedisUtil {
      */
     public static Object getAndSet(String key, Object value) {
         Assert.hasText(key, NOT_HAS_TEXT);
-        return getRedisTemplate().opsForValue().getAndSet(key, value);
+        Object oldValue = getRedisTemplate().opsForValue().getAndSet(key, value);
+        invalidate(key);
+        return oldValue;
     }
 
-    private static RedisTemplate<String, Object> getRedisTemplate() {
+    static RedisTemplate<String, Object> getRedisTemplate() {
         Assert.state(hasInit, "未初始化redisTemplate.");
         return redisTemplate;
     }
 
+    @SuppressWarnings("unchecked")
+    private static byte[] rawKey(String key) {
+        return ((RedisSerializer<String>) getRedisTemplate().getKeySerializer()).serialize(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] rawMember(Object member) {
+        return ((RedisSerializer<Object>) getRedisTemplate().getValueSerializer()).serialize(member);
+    }
+
+    private static byte[] rawValue(String key, Object value) {
+        return valueSerializer(key).serialize(value);
+    }
+
+    /**
+     * 反序列化key对应的value，按前缀注册的序列化方式解析失败时（如实体结构已变化）按未命中处理
+     *
+     * @param key
+     * @param bytes
+     * @return
+     */
+    private static Object deserializeValue(String key, byte[] bytes) {
+        try {
+            return valueSerializer(key).deserialize(bytes);
+        } catch (SerializationException e) {
+            if (serializerRegistry.getSerializer(key) == null) {
+                throw e;
+            }
+            log.warn("redis value of key '" + key + "' cannot be deserialized, treated as missing", e);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisSerializer<Object> valueSerializer(String key) {
+        RedisSerializer<?> serializer = serializerRegistry.getSerializer(key);
+        if (serializer == null) {
+            serializer = getRedisTemplate().getValueSerializer();
+        }
+        return (RedisSerializer<Object>) serializer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] rawHashKey(Object hashKey) {
+        return ((RedisSerializer<Object>) getRedisTemplate().getHashKeySerializer()).serialize(hashKey);
+    }
+
+    /**
+     * 写操作后使一级缓存中的key失效
+     *
+     * @param key
+     */
+    private static void invalidate(String key) {
+        NearCache cache = nearCache;
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    private static void invalidate(String key, Object hashKey) {
+        NearCache cache = nearCache;
+        if (cache != null) {
+            cache.invalidate(key, hashKey);
+        }
+    }
+
     /**
      * 删除某个key
      *
@@ -227,6 +485,22 @@ public class JedisUtil {
      */
     public static void deleteKey(String key) {
         getRedisTemplate().delete(key);
+        invalidate(key);
+    }
+
+    /**
+     * 批量删除key
+     *
+     * @param keys
+     */
+    public static void deleteKeys(Collection<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+        getRedisTemplate().delete(keys);
+        for (String key : keys) {
+            invalidate(key);
+        }
     }
 
     /**
@@ -249,6 +523,434 @@ public class JedisUtil {
         return getRedisTemplate().opsForHash().entries(key);
     }
 
+    /**
+     * 设置批量操作每次pipeline提交的key数量
+     *
+     * @param batchSize
+     */
+    public static void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "Parameter 'batchSize' must be positive.");
+        JedisUtil.batchSize = batchSize;
+    }
+
+    /**
+     * 批量查询value，按batchSize分批通过pipeline执行，不存在的key不包含在结果中
+     *
+     * @param keys
+     * @return 与keys顺序一致的key-value集合
+     */
+    public static Map<String, Object> mget(Collection<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        final NearCache cache = nearCache;
+        Map<String, Object> found = new HashMap<String, Object>();
+        List<String> misses = new ArrayList<String>();
+        Set<String> distinctKeys = new LinkedHashSet<String>(keys);
+        for (String key : distinctKeys) {
+            Object value = cache == null ? null : cache.get(key);
+            if (value != null) {
+                found.put(key, value);
+            } else if (!StringUtil.isEmpty(key)) {
+                misses.add(key);
+            }
+        }
+        for (final List<String> chunk : partition(misses)) {
+            long version = cache == null ? 0 : cache.version();
+            List<Object> values = getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (String key : chunk) {
+                        byte[] rawKey = rawKey(key);
+                        connection.get(rawKey);
+                        if (cache != null) {
+                            connection.pTtl(rawKey);
+                        }
+                    }
+                    return null;
+                }
+            }, RAW_SERIALIZER);
+            int step = cache == null ? 1 : 2;
+            for (int i = 0; i < chunk.size(); i++) {
+                Object value = deserializeValue(chunk.get(i), (byte[]) values.get(i * step));
+                if (value == null) {
+                    continue;
+                }
+                found.put(chunk.get(i), value);
+                if (cache != null) {
+                    cache.put(chunk.get(i), value, (Long) values.get(i * step + 1), version);
+                }
+            }
+        }
+        // 一级缓存命中与从Redis读取的结果按keys的顺序合并
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (String key : distinctKeys) {
+            Object value = found.get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量获取value及其剩余存活时间，每个key的GET与PTTL在同一个pipeline中，不经过一级缓存
+     *
+     * @param keys
+     * @return 存在的key -> 值与剩余存活时间
+     */
+    public static Map<String, ExpiringValue> mgetWithTtl(Collection<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, ExpiringValue> result = new LinkedHashMap<String, ExpiringValue>();
+        for (final List<String> chunk : partition(new ArrayList<String>(new LinkedHashSet<String>(keys)))) {
+            List<Object> values = getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (String key : chunk) {
+                        byte[] rawKey = rawKey(key);
+                        connection.get(rawKey);
+                        connection.pTtl(rawKey);
+                    }
+                    return null;
+                }
+            }, RAW_SERIALIZER);
+            for (int i = 0; i < chunk.size(); i++) {
+                Object value = deserializeValue(chunk.get(i), (byte[]) values.get(i * 2));
+                if (value != null) {
+                    result.put(chunk.get(i), new ExpiringValue(value, (Long) values.get(i * 2 + 1)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量设置value（永久）
+     *
+     * @param values
+     */
+    public static void mset(Map<String, Object> values) {
+        mset(values, Collections.<String, Long>emptyMap());
+    }
+
+    /**
+     * 批量设置value，所有key使用相同的失效时间
+     *
+     * @param values
+     * @param timeout
+     * @param unit
+     */
+    public static void mset(Map<String, Object> values, long timeout, TimeUnit unit) {
+        Assert.notNull(values, "Parameter 'values' must not be null.");
+        Assert.notNull(unit, "Parameter 'unit' must not be null.");
+        Map<String, Long> expireMillis = new HashMap<String, Long>();
+        for (String key : values.keySet()) {
+            expireMillis.put(key, unit.toMillis(timeout));
+        }
+        mset(values, expireMillis);
+    }
+
+    /**
+     * 批量设置value，按key单独指定失效时间
+     *
+     * @param values
+     * @param expireMillis key对应的失效时间（毫秒），不包含的key或值不大于0时为永久
+     */
+    public static void mset(Map<String, Object> values, final Map<String, Long> expireMillis) {
+        Assert.notNull(values, "Parameter 'values' must not be null.");
+        Assert.notNull(expireMillis, "Parameter 'expireMillis' must not be null.");
+        for (final List<Map.Entry<String, Object>> chunk : partition(new ArrayList<Map.Entry<String, Object>>(values.entrySet()))) {
+            getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (Map.Entry<String, Object> entry : chunk) {
+                        Assert.hasText(entry.getKey(), NOT_HAS_TEXT);
+                        byte[] rawKey = rawKey(entry.getKey());
+                        byte[] rawValue = rawValue(entry.getKey(), entry.getValue());
+                        Long expire = expireMillis.get(entry.getKey());
+                        if (expire != null && expire > 0) {
+                            connection.pSetEx(rawKey, expire, rawValue);
+                        } else {
+                            connection.set(rawKey, rawValue);
+                        }
+                    }
+                    return null;
+                }
+            });
+            for (Map.Entry<String, Object> entry : chunk) {
+                invalidate(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 批量获取多个hash的全部键值，不存在的key不包含在结果中
+     *
+     * @param keys
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Map<Object, Object>> hgetAll(Collection<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Map<Object, Object>> result = new LinkedHashMap<String, Map<Object, Object>>();
+        for (final List<String> chunk : partition(new ArrayList<String>(new LinkedHashSet<String>(keys)))) {
+            List<Object> values = getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (String key : chunk) {
+                        connection.hGetAll(rawKey(key));
+                    }
+                    return null;
+                }
+            });
+            for (int i = 0; i < chunk.size(); i++) {
+                Map<Object, Object> value = (Map<Object, Object>) values.get(i);
+                if (value != null && !value.isEmpty()) {
+                    result.put(chunk.get(i), value);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量为key设置过期时间
+     *
+     * @param keys
+     * @param timeout
+     * @param unit
+     * @return 设置成功的key数量
+     */
+    public static int expire(Collection<String> keys, long timeout, TimeUnit unit) {
+        if (keys == null || keys.isEmpty() || unit == null) {
+            return 0;
+        }
+
+        final long millis = unit.toMillis(timeout);
+        int count = 0;
+        for (final List<String> chunk : partition(new ArrayList<String>(keys))) {
+            List<Object> results = getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (String key : chunk) {
+                        connection.pExpire(rawKey(key), millis);
+                    }
+                    return null;
+                }
+            });
+            for (int i = 0; i < chunk.size(); i++) {
+                invalidate(chunk.get(i));
+                if (Boolean.TRUE.equals(results.get(i))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 批量增加计数器的值，可按key指定失效时间，增量为0时只读取当前值
+     *
+     * @param deltas       key -> 增量
+     * @param expireMillis key对应的失效时间（毫秒），不包含的key保持原有失效时间
+     * @return key -> 增加后的值
+     */
+    public static Map<String, Long> incrBy(Map<String, Long> deltas, final Map<String, Long> expireMillis) {
+        Assert.notNull(deltas, "Parameter 'deltas' must not be null.");
+        Assert.notNull(expireMillis, "Parameter 'expireMillis' must not be null.");
+        Map<String, Long> values = new HashMap<String, Long>(deltas.size() * 2);
+        for (final List<Map.Entry<String, Long>> chunk : partition(new ArrayList<Map.Entry<String, Long>>(deltas.entrySet()))) {
+            List<Object> results = getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (Map.Entry<String, Long> entry : chunk) {
+                        byte[] rawKey = rawKey(entry.getKey());
+                        connection.incrBy(rawKey, entry.getValue());
+                        Long expire = expireMillis.get(entry.getKey());
+                        if (expire != null && expire > 0) {
+                            connection.pExpire(rawKey, expire);
+                        }
+                    }
+                    return null;
+                }
+            });
+            // 设置了失效时间的key，INCRBY的结果后跟着PEXPIRE的结果，只取INCRBY的结果
+            int index = 0;
+            for (Map.Entry<String, Long> entry : chunk) {
+                String key = entry.getKey();
+                invalidate(key);
+                values.put(key, (Long) results.get(index++));
+                Long expire = expireMillis.get(key);
+                if (expire != null && expire > 0) {
+                    index++;
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 批量判断key是否存在
+     *
+     * @param keys
+     * @return 存在的key
+     */
+    public static Set<String> existKeys(Collection<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<String> result = new HashSet<String>();
+        for (final List<String> chunk : partition(new ArrayList<String>(new LinkedHashSet<String>(keys)))) {
+            List<Object> values = getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (String key : chunk) {
+                        connection.exists(rawKey(key));
+                    }
+                    return null;
+                }
+            });
+            for (int i = 0; i < chunk.size(); i++) {
+                if (Boolean.TRUE.equals(values.get(i))) {
+                    result.add(chunk.get(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量增加有序集合成员的分数，可按key指定失效时间
+     *
+     * @param deltas       key -> (成员 -> 增量)
+     * @param expireMillis key对应的失效时间（毫秒），不包含的key保持原有失效时间
+     */
+    public static void incrementScores(Map<String, Map<Object, Double>> deltas, final Map<String, Long> expireMillis) {
+        Assert.notNull(deltas, "Parameter 'deltas' must not be null.");
+        Assert.notNull(expireMillis, "Parameter 'expireMillis' must not be null.");
+        for (final List<Map.Entry<String, Map<Object, Double>>> chunk : partition(new ArrayList<Map.Entry<String, Map<Object, Double>>>(deltas.entrySet()))) {
+            getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (Map.Entry<String, Map<Object, Double>> entry : chunk) {
+                        byte[] rawKey = rawKey(entry.getKey());
+                        for (Map.Entry<Object, Double> delta : entry.getValue().entrySet()) {
+                            connection.zIncrBy(rawKey, delta.getValue(), rawMember(delta.getKey()));
+                        }
+                        Long expire = expireMillis.get(entry.getKey());
+                        if (expire != null && expire > 0) {
+                            connection.pExpire(rawKey, expire);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * 在一次脚本调用中原子地增加多个有序集合成员的分数，并以onceKey标记；
+     * onceKey已存在时不做任何修改，同一onceKey重复调用（如超时后重试）只生效一次
+     *
+     * @param onceKey        本次写入的唯一标记key
+     * @param onceTtlMillis  标记保留时间（毫秒），需覆盖可能重试的时间
+     * @param deltas         key -> (成员 -> 增量)，成员按字符串传递
+     * @param expireMillis   key对应的失效时间（毫秒），不包含的key保持原有失效时间
+     * @return 本次是否生效，已生效过返回false
+     */
+    public static boolean incrementScoresOnce(String onceKey, long onceTtlMillis, Map<String, Map<Object, Double>> deltas,
+                                              Map<String, Long> expireMillis) {
+        Assert.hasText(onceKey, NOT_HAS_TEXT);
+        Assert.notNull(deltas, "Parameter 'deltas' must not be null.");
+        Assert.notNull(expireMillis, "Parameter 'expireMillis' must not be null.");
+        List<String> keys = new ArrayList<String>(deltas.size() + 1);
+        List<Object> args = new ArrayList<Object>();
+        keys.add(onceKey);
+        args.add(String.valueOf(onceTtlMillis));
+        for (Map.Entry<String, Map<Object, Double>> entry : deltas.entrySet()) {
+            keys.add(entry.getKey());
+            Long expire = expireMillis.get(entry.getKey());
+            args.add(String.valueOf(entry.getValue().size()));
+            args.add(String.valueOf(expire == null ? 0 : expire));
+            for (Map.Entry<Object, Double> delta : entry.getValue().entrySet()) {
+                args.add(delta.getKey().toString());
+                args.add(String.valueOf(delta.getValue()));
+            }
+        }
+        Long applied = eval(INCREMENT_SCORES_ONCE_SCRIPT, keys, args.toArray());
+        return applied != null && applied > 0;
+    }
+
+    /**
+     * 合并多个有序集合（分数相加）到目标key，并设置目标key的失效时间
+     *
+     * @param destKey
+     * @param keys
+     * @param timeout
+     * @param unit
+     * @return 目标key的成员数
+     */
+    public static Long zUnionStore(String destKey, Collection<String> keys, long timeout, TimeUnit unit) {
+        Assert.hasText(destKey, NOT_HAS_TEXT);
+        Assert.notEmpty(keys, "Parameter 'keys' must not be empty.");
+        final byte[] rawDestKey = rawKey(destKey);
+        final byte[][] rawKeys = new byte[keys.size()][];
+        int i = 0;
+        for (String key : keys) {
+            rawKeys[i++] = rawKey(key);
+        }
+        final long millis = unit.toMillis(timeout);
+        List<Object> results = getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+            @Override
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                connection.zUnionStore(rawDestKey, rawKeys);
+                connection.pExpire(rawDestKey, millis);
+                return null;
+            }
+        });
+        return (Long) results.get(0);
+    }
+
+    /**
+     * 执行Lua脚本，参数按字符串传递，整数结果为Long，多值结果为List；脚本涉及的key会从一级缓存中失效
+     *
+     * @param script
+     * @param keys
+     * @param args
+     * @return
+     */
+    public static <T> T eval(RedisScript<T> script, List<String> keys, Object... args) {
+        Assert.notNull(script, "Parameter 'script' must not be null.");
+        T result = getRedisTemplate().execute(script, SCRIPT_ARGS_SERIALIZER, null, keys, args);
+        for (String key : keys) {
+            invalidate(key);
+        }
+        return result;
+    }
+
+    /**
+     * 按batchSize切分批量操作
+     *
+     * @param list
+     * @return
+     */
+    private static <T> List<List<T>> partition(List<T> list) {
+        int size = batchSize;
+        List<List<T>> chunks = new ArrayList<List<T>>((list.size() + size - 1) / size);
+        for (int i = 0; i < list.size(); i += size) {
+            chunks.add(list.subList(i, Math.min(i + size, list.size())));
+        }
+        return chunks;
+    }
+
     /**
      * 获取自增值
      *
@@ -258,6 +960,7 @@ public class JedisUtil {
     public static Long incr(String key) {
         RedisAtomicLong entityIdCounter = new RedisAtomicLong(key, redisTemplate.getConnectionFactory());
         Long increment = entityIdCounter.getAndIncrement();
+        invalidate(key);
         return increment;
     }
 
@@ -270,6 +973,7 @@ public class JedisUtil {
     public static Long incr(String key, long timeout, TimeUnit unit) {
         // 递增后返回结果
         Long inrc = redisTemplate.opsForValue().increment(key, 1);
+        invalidate(key);
         if (inrc == 1) {
             //如果等于1则加过期时间
             redisTemplate.expire(key, timeout, unit);
@@ -286,6 +990,7 @@ public class JedisUtil {
     public static Long incrAndGet(String key) {
         RedisAtomicLong entityIdCounter = new RedisAtomicLong(key, redisTemplate.getConnectionFactory());
         Long increment = entityIdCounter.incrementAndGet();
+        invalidate(key);
         return increment;
     }
 
@@ -294,7 +999,9 @@ public class JedisUtil {
      *
      * @param key
      * @return
+     * @deprecated 返回值不带owner token，无法安全解锁，请使用 {@link RedisLock#tryLock(String, long)}
      */
+    @Deprecated
     public static boolean lock(String key) {
         return lock(key, DEFAULT_WAIT_LOCK_TIME_OUT);
     }
@@ -304,41 +1011,20 @@ public class JedisUtil {
      *
      * @param key
      * @return
+     * @deprecated 返回值不带owner token，无法安全解锁，请使用 {@link RedisLock#tryLock(String, long)}
      */
+    @Deprecated
     public static boolean lock(String key, long timeOut) {
-        long currentTimeMillis = System.currentTimeMillis();
-        long newExpireTime = currentTimeMillis + timeOut;
-        RedisConnection connection = getRedisTemplate().getConnectionFactory().getConnection();
-        try {
-            Boolean setNX = connection.setNX(key.getBytes(), String.valueOf(newExpireTime).getBytes());
-            if (setNX) {
-                expire(key, timeOut, TimeUnit.MILLISECONDS);
-                return true;
-            }
-            //解决如果在第一步setnx执行成功后，在expire()命令执行成功前，发生了宕机的现象，那么就依然会出现死锁的问题
-            String currentValue = (String) get(key);
-            if (currentValue != null && Long.parseLong(currentValue) < currentTimeMillis) {
-                String oldExpireTime = (String) getAndSet(key, String.valueOf(newExpireTime));
-                if (oldExpireTime != null && oldExpireTime.equals(currentValue)) {
-                    return true;
-                }
-            }
-        } catch (Exception e) {
-            log.error("redis setNX error", e);
-        } finally {
-            if (connection != null) {
-                connection.close();
-            }
-        }
-
-        return false;
+        return RedisLock.tryLock(key, timeOut) != null;
     }
 
     /**
      * 解锁
      *
      * @param key
+     * @deprecated 直接删除key，会释放其他节点持有的锁，请使用 {@link LockHandle#release()}
      */
+    @Deprecated
     public static void unLock(String key) {
         deleteKey(key);
     }
@@ -371,7 +1057,9 @@ public class JedisUtil {
      * @Description redis命令setnx
      */
     public static boolean setnx(String key, String value) {
-        return getRedisTemplate().opsForValue().setIfAbsent(key, value);
+        boolean result = getRedisTemplate().opsForValue().setIfAbsent(key, value);
+        invalidate(key);
+        return result;
     }
 
     /**
@@ -379,28 +1067,14 @@ public class JedisUtil {
      *
      * @param key
      * @return
+     * @deprecated 返回值不带owner token，无法安全解锁，请使用 {@link RedisLock#tryLock(String, long)}
      */
+    @Deprecated
     public static boolean syncLock(String key, Long expireTime) {
         if (expireTime == null) {
             expireTime = DEFAULT_WAIT_LOCK_TIME_OUT;
         }
-        long currentTimeMillis = System.currentTimeMillis();
-        long newExpireTime = currentTimeMillis + expireTime;
-        Boolean setNX = getRedisTemplate().opsForValue().setIfAbsent(key, String.valueOf(newExpireTime));
-        //
-        if (setNX) {
-            expire(key, DEFAULT_WAIT_LOCK_TIME_OUT, TimeUnit.MILLISECONDS);
-            return true;
-        }
-        //解决如果在第一步setnx执行成功后，在expire()命令执行成功前，发生了宕机的现象，那么就依然会出现死锁的问题
-        String currentValue = (String) get(key);
-        if (currentValue != null && Long.parseLong(currentValue) < currentTimeMillis) {
-            String oldExpireTime = (String) getAndSet(key, String.valueOf(newExpireTime));
-            if (oldExpireTime != null && oldExpireTime.equals(currentValue)) {
-                return true;
-            }
-        }
-        return false;
+        return RedisLock.tryLock(key, expireTime) != null;
     }
 
 
@@ -423,26 +1097,29 @@ public class JedisUtil {
      * @param key
      * @return
      */
-    public static Long decr(String key) {
-        Long increment = redisTemplate.opsForValue().increment(key, -1);
-        return increment;
-    }
-
-    public static boolean retryLock(final String key, final long expire) {
-        try {
-            String result = redisTemplate.execute(new RedisCallback<String>() {
+    public static Long decr(final String key) {
+        Long increment;
+        CommandBatcher batcher = commandBatcher;
+        if (batcher != null) {
+            increment = (Long) batcher.execute(new CommandBatcher.Command() {
                 @Override
-                public String doInRedis(RedisConnection connection) throws DataAccessException {
-                    JedisCommands commands = (JedisCommands) connection.getNativeConnection();
-                    //单个命令
-                    return commands.set(key, UUID.randomUUID().toString(), "NX", "PX", expire);
+                protected void issue(RedisConnection connection) {
+                    connection.decr(rawKey(key));
                 }
             });
-            return !StringUtils.isEmpty(result);
-        } catch (Exception e) {
-            log.error("Lock: set redis occured an exception", e);
-            return false;
+        } else {
+            increment = redisTemplate.opsForValue().increment(key, -1);
         }
+        invalidate(key);
+        return increment;
+    }
+
+    /**
+     * @deprecated 返回值不带owner token，无法安全解锁，请使用 {@link RedisLock#tryLock(String, long)}
+     */
+    @Deprecated
+    public static boolean retryLock(final String key, final long expire) {
+        return RedisLock.tryLock(key, expire) != null;
     }
 
     public static void zAdd(String key, Object object, Double num) {
@@ -454,7 +1131,51 @@ public class JedisUtil {
         return typedTuples;
     }
 
-    public static void incrementScore(String key, Object object, Double num) {
-        Double aDouble = redisTemplate.opsForZSet().incrementScore(key, object, num);
+    public static Double incrementScore(String key, Object object, Double num) {
+        return redisTemplate.opsForZSet().incrementScore(key, object, num);
+    }
+
+    /**
+     * 按分数从高到低取排名区间内的成员及分数
+     *
+     * @param key
+     * @param start 从0开始的排名
+     * @param end
+     * @return
+     */
+    public static Set<ZSetOperations.TypedTuple<Object>> zReverseRangeWithScores(String key, long start, long end) {
+        return getRedisTemplate().opsForZSet().reverseRangeWithScores(key, start, end);
+    }
+
+    /**
+     * 成员按分数从高到低的排名（从0开始），不存在时返回null
+     *
+     * @param key
+     * @param member
+     * @return
+     */
+    public static Long zReverseRank(String key, Object member) {
+        return getRedisTemplate().opsForZSet().reverseRank(key, member);
+    }
+
+    /**
+     * 成员的分数，不存在时返回null
+     *
+     * @param key
+     * @param member
+     * @return
+     */
+    public static Double zScore(String key, Object member) {
+        return getRedisTemplate().opsForZSet().score(key, member);
+    }
+
+    /**
+     * 有序集合的成员数
+     *
+     * @param key
+     * @return
+     */
+    public static Long zCard(String key) {
+        return getRedisTemplate().opsForZSet().zCard(key);
     }
 }
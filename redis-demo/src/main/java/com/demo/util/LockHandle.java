@@ -0,0 +1,116 @@
+package com.demo.util;
+
+import java.io.Closeable;
+
+/**
+ * 已获取的分布式锁，持有唯一的owner token，只有持有者能释放
+ * <p>
+ * 配合try-with-resources使用：
+ * <pre>
+ * try (LockHandle lock = RedisLock.tryLock(key, 5000, 3000)) {
+ *     if (lock != null) {
+ *         lock.keepAlive();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class LockHandle implements Closeable {
+
+    private final String key;
+
+    private final String token;
+
+    private final long leaseMillis;
+
+    /**
+     * 加锁的线程，结束后看门狗停止续期
+     */
+    private final Thread owner;
+
+    private volatile long renewedAt;
+
+    private volatile boolean released;
+
+    private volatile boolean lost;
+
+    LockHandle(String key, String token, long leaseMillis) {
+        this.key = key;
+        this.token = token;
+        this.leaseMillis = leaseMillis;
+        this.owner = Thread.currentThread();
+        this.renewedAt = System.currentTimeMillis();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    Thread getOwner() {
+        return owner;
+    }
+
+    long getRenewedAt() {
+        return renewedAt;
+    }
+
+    void renewed(long time) {
+        renewedAt = time;
+    }
+
+    void lost() {
+        lost = true;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * 看门狗续期时发现锁已过期或被他人持有
+     *
+     * @return
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * 由看门狗定期续期，直到释放锁或加锁线程结束，临界区执行时间不确定时使用
+     *
+     * @return
+     */
+    public LockHandle keepAlive() {
+        if (!released) {
+            LockWatchdog.watch(this);
+        }
+        return this;
+    }
+
+    /**
+     * 释放锁，锁已过期或已被他人持有时返回false
+     *
+     * @return
+     */
+    public boolean release() {
+        if (released) {
+            return false;
+        }
+        released = true;
+        LockWatchdog.unwatch(this);
+        return RedisLock.release(key, token);
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+}
@@ -0,0 +1,31 @@
+package com.demo.util;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+/**
+ * 监听锁释放通知，唤醒本节点等待同一把锁的线程
+ */
+public class LockReleaseListener implements MessageListener {
+
+    private final StringRedisSerializer serializer = new StringRedisSerializer();
+
+    /**
+     * 该监听器需要订阅的topic
+     *
+     * @return
+     */
+    public static Topic topic() {
+        return new ChannelTopic(RedisLock.RELEASE_CHANNEL);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (message.getBody() != null) {
+            LockWaiters.signal(serializer.deserialize(message.getBody()));
+        }
+    }
+}
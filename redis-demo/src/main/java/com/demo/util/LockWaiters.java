@@ -0,0 +1,88 @@
+package com.demo.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 本地等待锁的线程，收到释放通知时唤醒同一key的等待者
+ * <p>
+ * 等待者在尝试加锁前先登记并记下通知序号，加锁失败后只在序号未变化时才进入等待，
+ * 尝试与等待之间到达的释放通知不会丢失。
+ */
+class LockWaiters {
+
+    private static final Map<String, Waiter> waiters = new HashMap<String, Waiter>();
+
+    private LockWaiters() {
+    }
+
+    /**
+     * 登记等待者，必须与unregister成对调用
+     *
+     * @param key
+     * @return
+     */
+    static Waiter register(String key) {
+        synchronized (waiters) {
+            Waiter waiter = waiters.get(key);
+            if (waiter == null) {
+                waiter = new Waiter();
+                waiters.put(key, waiter);
+            }
+            waiter.count++;
+            return waiter;
+        }
+    }
+
+    static void unregister(String key, Waiter waiter) {
+        synchronized (waiters) {
+            if (--waiter.count == 0) {
+                waiters.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 唤醒等待key的线程
+     *
+     * @param key
+     */
+    static void signal(String key) {
+        Waiter waiter;
+        synchronized (waiters) {
+            waiter = waiters.get(key);
+        }
+        if (waiter != null) {
+            waiter.signal();
+        }
+    }
+
+    static class Waiter {
+        private int count;
+        private long generation;
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        synchronized void signal() {
+            generation++;
+            notifyAll();
+        }
+
+        /**
+         * 等待释放通知或超时
+         *
+         * @param observed 尝试加锁前记下的通知序号
+         * @param millis
+         */
+        synchronized void await(long observed, long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            long remaining = millis;
+            while (generation == observed && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.demo.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+/**
+ * 锁续期看门狗
+ * <p>
+ * 定时检查登记的锁，存活时间过去三分之一的锁在同一个pipeline中按token续期；
+ * 锁已释放、持有线程已结束或续期时发现锁已不属于自己时停止续期。
+ */
+class LockWatchdog {
+    private static final Logger log = LoggerFactory.getLogger(LockWatchdog.class);
+
+    /**
+     * 检查间隔（毫秒）
+     */
+    private static final long TICK = 100;
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+
+    /**
+     * token一致才续期
+     */
+    private static final byte[] RENEW_SCRIPT = STRING_SERIALIZER.serialize(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then "
+                    + "return redis.call('pexpire', KEYS[1], ARGV[2]) "
+                    + "else return 0 end");
+
+    private static final Set<LockHandle> handles = ConcurrentHashMap.newKeySet();
+
+    private static volatile ScheduledExecutorService executor;
+
+    private LockWatchdog() {
+    }
+
+    static void watch(LockHandle handle) {
+        handles.add(handle);
+        start();
+    }
+
+    static void unwatch(LockHandle handle) {
+        handles.remove(handle);
+    }
+
+    private static void start() {
+        if (executor != null) {
+            return;
+        }
+        synchronized (LockWatchdog.class) {
+            if (executor == null) {
+                ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "redis-lock-watchdog");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                service.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            renew();
+                        } catch (Exception e) {
+                            log.error("redis lock renew error", e);
+                        }
+                    }
+                }, TICK, TICK, TimeUnit.MILLISECONDS);
+                executor = service;
+            }
+        }
+    }
+
+    private static void renew() {
+        long now = System.currentTimeMillis();
+        final List<LockHandle> due = new ArrayList<LockHandle>();
+        for (LockHandle handle : handles) {
+            if (handle.isReleased() || !handle.getOwner().isAlive()) {
+                handles.remove(handle);
+            } else if (now - handle.getRenewedAt() >= handle.getLeaseMillis() / 3) {
+                due.add(handle);
+            }
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+        List<Object> results = JedisUtil.getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+            @Override
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                for (LockHandle handle : due) {
+                    connection.eval(RENEW_SCRIPT, ReturnType.INTEGER, 1,
+                            STRING_SERIALIZER.serialize(handle.getKey()),
+                            STRING_SERIALIZER.serialize(handle.getToken()),
+                            STRING_SERIALIZER.serialize(String.valueOf(handle.getLeaseMillis())));
+                }
+                return null;
+            }
+        });
+        for (int i = 0; i < due.size(); i++) {
+            LockHandle handle = due.get(i);
+            if (Long.valueOf(1).equals(results.get(i))) {
+                handle.renewed(now);
+            } else {
+                log.warn("redis lock '" + handle.getKey() + "' was lost before renewal");
+                handle.lost();
+                handles.remove(handle);
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.demo.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JedisUtil的进程内一级缓存（near cache）
+ * <p>
+ * 按key做LRU淘汰，缓存条目的存活时间取本地TTL与Redis剩余TTL的较小值；
+ * hash类型按key归组，删除key时其下所有hashKey一并失效。
+ * <p>
+ * 每次失效分配递增的序号并按key（hash为key与hashKey）记录失效时间，从Redis读取前记下当前序号，
+ * 写入缓存时只检查该key在读取开始之后是否失效过，是则放弃写入，避免读取期间发生的写入与失效被读到的旧值覆盖；
+ * 其他key的失效不影响这次写入。失效记录只需覆盖进行中的读取，保留一段时间后清理。
+ */
+public class NearCache {
+
+    /**
+     * Redis中key不存在时PTTL的返回值
+     */
+    private static final long NOT_EXISTS = -2;
+
+    /**
+     * 最多缓存的key数量
+     */
+    private final int maxSize;
+
+    /**
+     * 本地缓存最长存活时间（毫秒）
+     */
+    private final long ttlMillis;
+
+    /**
+     * 失效记录的保留时间（毫秒），远大于一次Redis读取的耗时
+     */
+    private static final long TOMBSTONE_TTL = 10000;
+
+    /**
+     * 最多保留的失效记录数
+     */
+    private static final int MAX_TOMBSTONES = 100000;
+
+    private final LinkedHashMap<String, Slot> slots;
+
+    /**
+     * 失效记录：key或FieldKey -> 失效时的序号，按失效时间排序
+     */
+    private final LinkedHashMap<Object, Tombstone> tombstones = new LinkedHashMap<Object, Tombstone>();
+
+    /**
+     * 失效序号
+     */
+    private long sequence;
+
+    /**
+     * 已清理的失效记录中最大的序号，读取开始早于它的写入无法判断，一律放弃
+     */
+    private long floor;
+
+    public NearCache(final int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.slots = new LinkedHashMap<String, Slot>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Slot> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * 当前的失效序号，从Redis读取之前获取，写入缓存时传入
+     *
+     * @return
+     */
+    public synchronized long version() {
+        return sequence;
+    }
+
+    /**
+     * 获取缓存的值，未命中或已过期返回null
+     *
+     * @param key
+     * @return
+     */
+    public synchronized Object get(String key) {
+        Slot slot = slots.get(key);
+        if (slot == null || slot.value == null) {
+            return null;
+        }
+        if (slot.value.isExpired()) {
+            slot.value = null;
+            removeIfEmpty(key, slot);
+            return null;
+        }
+        return slot.value.value;
+    }
+
+    /**
+     * 缓存值
+     *
+     * @param key
+     * @param value
+     * @param redisTtlMillis Redis中该key的剩余存活时间（PTTL），-1表示永久
+     * @param version        读取前获取的失效序号，期间该key失效过则不缓存
+     */
+    public synchronized void put(String key, Object value, Long redisTtlMillis, long version) {
+        long expireAt = expireAt(redisTtlMillis);
+        if (value == null || expireAt <= 0 || invalidatedSince(key, version)) {
+            return;
+        }
+        slot(key).value = new Entry(value, expireAt);
+    }
+
+    /**
+     * 获取缓存的hash值，未命中或已过期返回null
+     *
+     * @param key
+     * @param hashKey
+     * @return
+     */
+    public synchronized Object hget(String key, Object hashKey) {
+        Slot slot = slots.get(key);
+        if (slot == null || slot.fields == null) {
+            return null;
+        }
+        Entry entry = slot.fields.get(hashKey);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            slot.fields.remove(hashKey);
+            removeIfEmpty(key, slot);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * 缓存hash值
+     *
+     * @param key
+     * @param hashKey
+     * @param value
+     * @param redisTtlMillis Redis中该key的剩余存活时间（PTTL），-1表示永久
+     * @param version        读取前获取的失效序号，期间该key或hashKey失效过则不缓存
+     */
+    public synchronized void hput(String key, Object hashKey, Object value, Long redisTtlMillis, long version) {
+        long expireAt = expireAt(redisTtlMillis);
+        if (value == null || expireAt <= 0 || invalidatedSince(key, version)
+                || invalidatedSince(new FieldKey(key, hashKey), version)) {
+            return;
+        }
+        Slot slot = slot(key);
+        if (slot.fields == null) {
+            slot.fields = new HashMap<Object, Entry>();
+        }
+        if (slot.fields.size() >= maxSize && !slot.fields.containsKey(hashKey)) {
+            evictExpired(slot.fields);
+            if (slot.fields.size() >= maxSize) {
+                return;
+            }
+        }
+        slot.fields.put(hashKey, new Entry(value, expireAt));
+    }
+
+    /**
+     * 使key（含其下所有hashKey）失效
+     *
+     * @param key
+     */
+    public synchronized void invalidate(String key) {
+        tombstone(key);
+        slots.remove(key);
+    }
+
+    /**
+     * 使hash中的某个hashKey失效
+     *
+     * @param key
+     * @param hashKey
+     */
+    public synchronized void invalidate(String key, Object hashKey) {
+        tombstone(new FieldKey(key, hashKey));
+        Slot slot = slots.get(key);
+        if (slot != null && slot.fields != null) {
+            slot.fields.remove(hashKey);
+            removeIfEmpty(key, slot);
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        floor = ++sequence;
+        tombstones.clear();
+        slots.clear();
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * 记录失效，同一key只保留最近一次，并清理过期的失效记录
+     */
+    private void tombstone(Object key) {
+        long now = System.currentTimeMillis();
+        tombstones.remove(key);
+        tombstones.put(key, new Tombstone(++sequence, now));
+        Iterator<Tombstone> iterator = tombstones.values().iterator();
+        while (iterator.hasNext()) {
+            Tombstone eldest = iterator.next();
+            if (tombstones.size() <= MAX_TOMBSTONES && now - eldest.createdAt < TOMBSTONE_TTL) {
+                break;
+            }
+            floor = Math.max(floor, eldest.sequence);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 读取开始（序号为version）之后key是否失效过
+     */
+    private boolean invalidatedSince(Object key, long version) {
+        Tombstone tombstone = tombstones.get(key);
+        return tombstone != null ? tombstone.sequence > version : floor > version;
+    }
+
+    private Slot slot(String key) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            slot = new Slot();
+            slots.put(key, slot);
+        }
+        return slot;
+    }
+
+    private void removeIfEmpty(String key, Slot slot) {
+        if (slot.value == null && (slot.fields == null || slot.fields.isEmpty())) {
+            slots.remove(key);
+        }
+    }
+
+    private long expireAt(Long redisTtlMillis) {
+        if (redisTtlMillis == null || redisTtlMillis == NOT_EXISTS) {
+            return 0;
+        }
+        long ttl = ttlMillis;
+        if (redisTtlMillis >= 0) {
+            ttl = Math.min(ttl, redisTtlMillis);
+        }
+        return ttl > 0 ? System.currentTimeMillis() + ttl : 0;
+    }
+
+    private static void evictExpired(Map<Object, Entry> fields) {
+        Iterator<Entry> iterator = fields.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Slot {
+        private Entry value;
+        private Map<Object, Entry> fields;
+    }
+
+    private static class Tombstone {
+        private final long sequence;
+        private final long createdAt;
+
+        private Tombstone(long sequence, long createdAt) {
+            this.sequence = sequence;
+            this.createdAt = createdAt;
+        }
+    }
+
+    /**
+     * hash中单个hashKey的失效记录的key
+     */
+    private static class FieldKey {
+        private final String key;
+        private final Object hashKey;
+
+        private FieldKey(String key, Object hashKey) {
+            this.key = key;
+            this.hashKey = hashKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FieldKey)) {
+                return false;
+            }
+            FieldKey other = (FieldKey) o;
+            return key.equals(other.key) && hashKey.equals(other.hashKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + hashKey.hashCode();
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expireAt;
+
+        private Entry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expireAt;
+        }
+    }
+}
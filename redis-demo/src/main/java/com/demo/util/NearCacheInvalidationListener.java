@@ -0,0 +1,99 @@
+package com.demo.util;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+/**
+ * 监听Redis keyevent通知，使其他节点写入的key在本节点一级缓存中失效
+ * <p>
+ * 订阅 __keyevent@db__:*，消息体即为发生变化的key，需服务端开启notify-keyspace-events，启动时检查并尝试补上。
+ */
+public class NearCacheInvalidationListener implements MessageListener {
+    private static final Logger log = LoggerFactory.getLogger(NearCacheInvalidationListener.class);
+
+    private final StringRedisSerializer serializer = new StringRedisSerializer();
+
+    /**
+     * 该监听器需要订阅的topic
+     *
+     * @param database
+     * @return
+     */
+    public static Topic topic(int database) {
+        return new PatternTopic("__keyevent@" + database + "__:*");
+    }
+
+    /**
+     * 一级缓存失效至少需要的keyevent通知：E为keyevent，g$hxe为通用命令、字符串、hash、过期与淘汰
+     */
+    public static final String REQUIRED_EVENTS = "Eg$hxe";
+
+    /**
+     * 检查服务端的notify-keyspace-events，缺少required中的标志时尝试补上（保留服务端已有的标志）；
+     * 托管Redis通常禁用CONFIG命令，无法确认或补上时打印错误日志，此时其他节点的写入要等本地TTL过期才可见
+     *
+     * @param connectionFactory
+     * @param required          需要的标志，如 Eg$hxe，为空不检查
+     */
+    public static void ensureNotifications(RedisConnectionFactory connectionFactory, String required) {
+        if (StringUtil.isEmpty(required)) {
+            return;
+        }
+        RedisConnection connection = connectionFactory.getConnection();
+        try {
+            String current = currentEvents(connection);
+            String missing = missingFlags(current, required);
+            if (missing.isEmpty()) {
+                return;
+            }
+            connection.setConfig("notify-keyspace-events", current + missing);
+            missing = missingFlags(currentEvents(connection), required);
+            if (!missing.isEmpty()) {
+                log.error("redis notify-keyspace-events is missing '" + missing
+                        + "', near cache will not see writes from other nodes until the local ttl expires");
+            }
+        } catch (Exception e) {
+            log.error("redis notify-keyspace-events cannot be checked or set, near cache invalidation requires '"
+                    + required + "' on the server; writes from other nodes are only seen after the local ttl expires", e);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static String currentEvents(RedisConnection connection) {
+        List<String> config = connection.getConfig("notify-keyspace-events");
+        return config == null || config.size() < 2 || config.get(1) == null ? "" : config.get(1);
+    }
+
+    /**
+     * required中current没有的标志，A为g$lshzxe的简写
+     */
+    private static String missingFlags(String current, String required) {
+        StringBuilder missing = new StringBuilder();
+        for (char flag : required.toCharArray()) {
+            boolean covered = current.indexOf(flag) >= 0 || (current.indexOf('A') >= 0 && "g$lshzxe".indexOf(flag) >= 0);
+            if (!covered && missing.indexOf(String.valueOf(flag)) < 0) {
+                missing.append(flag);
+            }
+        }
+        return missing.toString();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        NearCache cache = JedisUtil.getNearCache();
+        if (cache == null || message.getBody() == null) {
+            return;
+        }
+        cache.invalidate(serializer.deserialize(message.getBody()));
+    }
+}
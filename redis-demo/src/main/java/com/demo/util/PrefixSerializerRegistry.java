@@ -0,0 +1,47 @@
+package com.demo.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * 按key前缀选择value的序列化方式，匹配最长的前缀，未匹配的key沿用RedisTemplate的序列化
+ */
+public class PrefixSerializerRegistry {
+
+    private final Map<String, RedisSerializer<?>> serializers = new ConcurrentHashMap<String, RedisSerializer<?>>();
+
+    /**
+     * 注册key前缀对应的序列化方式
+     *
+     * @param prefix
+     * @param serializer
+     */
+    public void register(String prefix, RedisSerializer<?> serializer) {
+        serializers.put(prefix, serializer);
+    }
+
+    /**
+     * 获取key对应的序列化方式，未注册时返回null
+     *
+     * @param key
+     * @return
+     */
+    public RedisSerializer<?> getSerializer(String key) {
+        if (key == null || serializers.isEmpty()) {
+            return null;
+        }
+        String matched = null;
+        for (String prefix : serializers.keySet()) {
+            if (key.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+            }
+        }
+        return matched == null ? null : serializers.get(matched);
+    }
+
+    public boolean isEmpty() {
+        return serializers.isEmpty();
+    }
+}
@@ -0,0 +1,115 @@
+package com.demo.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+/**
+ * 限流规则：算法、key、窗口内允许的次数与窗口长度
+ */
+public class RateLimit {
+
+    private static final String KEY_PREFIX = "ratelimit:";
+
+    /**
+     * 限流算法
+     */
+    public enum Algorithm {
+        /**
+         * 固定窗口计数，窗口按时间对齐，边界处最多允许两倍的请求
+         */
+        FIXED_WINDOW("f"),
+        /**
+         * 滑动日志，记录窗口内每次请求的时间，精确但占用与请求数成正比的内存
+         */
+        SLIDING_LOG("l"),
+        /**
+         * 滑动窗口计数，按时间比例加权上一个窗口的计数，近似且只需两个计数器
+         */
+        SLIDING_WINDOW("s"),
+        /**
+         * 令牌桶，容量为limit，每个窗口补满，允许突发
+         */
+        TOKEN_BUCKET("b");
+
+        private final String code;
+
+        Algorithm(String code) {
+            this.code = code;
+        }
+
+        String getCode() {
+            return code;
+        }
+    }
+
+    private final Algorithm algorithm;
+
+    private final String key;
+
+    private final long limit;
+
+    private final long windowMillis;
+
+    public RateLimit(Algorithm algorithm, String key, long limit, long window, TimeUnit unit) {
+        Assert.notNull(algorithm, "Parameter 'algorithm' must not be null.");
+        Assert.hasText(key, "Parameter 'key' must not be empty.");
+        Assert.isTrue(limit > 0, "Parameter 'limit' must be positive.");
+        this.algorithm = algorithm;
+        this.key = key;
+        this.limit = limit;
+        this.windowMillis = unit.toMillis(window);
+        Assert.isTrue(windowMillis > 0, "Parameter 'window' must be at least 1 millisecond.");
+    }
+
+    public static RateLimit fixedWindow(String key, long limit, long window, TimeUnit unit) {
+        return new RateLimit(Algorithm.FIXED_WINDOW, key, limit, window, unit);
+    }
+
+    public static RateLimit slidingLog(String key, long limit, long window, TimeUnit unit) {
+        return new RateLimit(Algorithm.SLIDING_LOG, key, limit, window, unit);
+    }
+
+    public static RateLimit slidingWindow(String key, long limit, long window, TimeUnit unit) {
+        return new RateLimit(Algorithm.SLIDING_WINDOW, key, limit, window, unit);
+    }
+
+    /**
+     * @param capacity 桶容量
+     * @param period   从空桶补满所需的时间
+     */
+    public static RateLimit tokenBucket(String key, long capacity, long period, TimeUnit unit) {
+        return new RateLimit(Algorithm.TOKEN_BUCKET, key, capacity, period, unit);
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * 脚本使用的两个Redis key：固定窗口与滑动窗口为当前窗口与上一个窗口的计数器，其余算法两个均为同一个key
+     *
+     * @param now
+     * @return
+     */
+    String[] redisKeys(long now) {
+        String base = KEY_PREFIX + key;
+        if (algorithm == Algorithm.FIXED_WINDOW || algorithm == Algorithm.SLIDING_WINDOW) {
+            long window = now / windowMillis;
+            return new String[]{base + ":" + window, base + ":" + (window - 1)};
+        }
+        return new String[]{base, base};
+    }
+}
@@ -0,0 +1,46 @@
+package com.demo.util;
+
+/**
+ * 限流检查结果
+ */
+public class RateLimitResult {
+
+    private final boolean allowed;
+
+    private final long remaining;
+
+    private final long retryAfterMillis;
+
+    public RateLimitResult(boolean allowed, long remaining, long retryAfterMillis) {
+        this.allowed = allowed;
+        this.remaining = remaining;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    /**
+     * 所有规则中最少的剩余次数
+     *
+     * @return
+     */
+    public long getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * 被拒绝时最早可以重试的等待时间（毫秒），-1表示一次请求的数量超过了上限，永远不会被允许
+     *
+     * @return
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitResult{allowed=" + allowed + ", remaining=" + remaining + ", retryAfterMillis=" + retryAfterMillis + "}";
+    }
+}
@@ -0,0 +1,142 @@
+package com.demo.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+/**
+ * 分布式限流
+ * <p>
+ * 一次检查为一次脚本调用，可同时检查多条规则（如每分钟1次且每天10次）：
+ * 先检查全部规则，全部通过才扣减，任一规则拒绝则都不扣减，返回剩余次数与最早可重试的时间。
+ * 当前时间由调用方传入脚本，各节点的时钟偏差会直接影响窗口边界。
+ */
+public class RateLimiter {
+
+    /**
+     * KEYS：每条规则两个key；ARGV：当前时间、本次数量、滑动日志成员前缀，之后每条规则为算法、上限、窗口（毫秒）
+     * 返回{是否允许, 剩余次数, 重试等待（毫秒）}
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ACQUIRE_SCRIPT = new DefaultRedisScript<List>(
+            "local now = tonumber(ARGV[1]) "
+                    + "local cost = tonumber(ARGV[2]) "
+                    + "local count = (#ARGV - 3) / 3 "
+                    + "local allowed = 1 "
+                    + "local remaining = nil "
+                    + "local retry = 0 "
+                    + "local tokens = {} "
+                    + "for i = 1, count do "
+                    + "  local algorithm = ARGV[3 * i + 1] "
+                    + "  local limit = tonumber(ARGV[3 * i + 2]) "
+                    + "  local window = tonumber(ARGV[3 * i + 3]) "
+                    + "  local current, previous = KEYS[2 * i - 1], KEYS[2 * i] "
+                    + "  local available, wait = 0, 0 "
+                    + "  if algorithm == 'f' then "
+                    + "    available = limit - tonumber(redis.call('get', current) or '0') "
+                    + "    if available < cost then wait = window - now % window end "
+                    + "  elseif algorithm == 'l' then "
+                    + "    redis.call('zremrangebyscore', current, '-inf', now - window) "
+                    + "    local used = redis.call('zcard', current) "
+                    + "    available = limit - used "
+                    + "    if available < cost and cost <= limit then "
+                    + "      local index = used + cost - limit - 1 "
+                    + "      local oldest = redis.call('zrange', current, index, index, 'WITHSCORES') "
+                    + "      wait = tonumber(oldest[2]) + window - now "
+                    + "    end "
+                    + "  elseif algorithm == 's' then "
+                    + "    local elapsed = now % window "
+                    + "    local used = tonumber(redis.call('get', current) or '0') "
+                    + "    local last = tonumber(redis.call('get', previous) or '0') "
+                    + "    available = limit - used - last * (window - elapsed) / window "
+                    + "    if available < cost then "
+                    + "      if used + cost > limit or last == 0 then "
+                    + "        wait = window - elapsed "
+                    + "      else "
+                    + "        wait = math.ceil(window - elapsed - (limit - used - cost) * window / last) "
+                    + "      end "
+                    + "    end "
+                    + "  else "
+                    + "    local rate = limit / window "
+                    + "    local state = redis.call('hmget', current, 'tokens', 'ts') "
+                    + "    local ts = tonumber(state[2]) or now "
+                    + "    available = math.min(limit, (tonumber(state[1]) or limit) + math.max(0, now - ts) * rate) "
+                    + "    tokens[i] = available "
+                    + "    if available < cost then wait = math.ceil((cost - available) / rate) end "
+                    + "  end "
+                    + "  if available < cost then "
+                    + "    allowed = 0 "
+                    + "    if cost > limit then "
+                    + "      retry = -1 "
+                    + "    elseif retry >= 0 then "
+                    + "      retry = math.max(retry, math.max(wait, 1)) "
+                    + "    end "
+                    + "  end "
+                    + "  if remaining == nil or available < remaining then remaining = available end "
+                    + "end "
+                    + "if allowed == 0 then "
+                    + "  return {0, math.max(0, math.floor(remaining)), retry} "
+                    + "end "
+                    + "for i = 1, count do "
+                    + "  local algorithm = ARGV[3 * i + 1] "
+                    + "  local window = tonumber(ARGV[3 * i + 3]) "
+                    + "  local current = KEYS[2 * i - 1] "
+                    + "  if algorithm == 'f' then "
+                    + "    if redis.call('incrby', current, cost) == cost then redis.call('pexpire', current, window) end "
+                    + "  elseif algorithm == 'l' then "
+                    + "    for j = 1, cost do redis.call('zadd', current, now, ARGV[3] .. ':' .. j) end "
+                    + "    redis.call('pexpire', current, window) "
+                    + "  elseif algorithm == 's' then "
+                    + "    if redis.call('incrby', current, cost) == cost then redis.call('pexpire', current, 2 * window) end "
+                    + "  else "
+                    + "    redis.call('hmset', current, 'tokens', tostring(tokens[i] - cost), 'ts', now) "
+                    + "    redis.call('pexpire', current, window) "
+                    + "  end "
+                    + "end "
+                    + "return {1, math.floor(remaining - cost), 0}", List.class);
+
+    private RateLimiter() {
+    }
+
+    /**
+     * 检查并扣减1次
+     *
+     * @param limits 同时检查的规则
+     * @return
+     */
+    public static RateLimitResult tryAcquire(RateLimit... limits) {
+        return tryAcquire(1, Arrays.asList(limits));
+    }
+
+    /**
+     * 检查并扣减permits次，任一规则拒绝时都不扣减
+     *
+     * @param permits
+     * @param limits  同时检查的规则
+     * @return
+     */
+    public static RateLimitResult tryAcquire(int permits, List<RateLimit> limits) {
+        Assert.isTrue(permits > 0, "Parameter 'permits' must be positive.");
+        Assert.notEmpty(limits, "Parameter 'limits' must not be empty.");
+        long now = System.currentTimeMillis();
+        List<String> keys = new ArrayList<String>(limits.size() * 2);
+        List<Object> args = new ArrayList<Object>(3 + limits.size() * 3);
+        args.add(now);
+        args.add(permits);
+        args.add(UUID.randomUUID().toString());
+        for (RateLimit limit : limits) {
+            keys.addAll(Arrays.asList(limit.redisKeys(now)));
+            args.add(limit.getAlgorithm().getCode());
+            args.add(limit.getLimit());
+            args.add(limit.getWindowMillis());
+        }
+        List<?> result = JedisUtil.eval(ACQUIRE_SCRIPT, keys, args.toArray());
+        return new RateLimitResult(((Number) result.get(0)).intValue() == 1,
+                ((Number) result.get(1)).longValue(), ((Number) result.get(2)).longValue());
+    }
+}
@@ -0,0 +1,371 @@
+package com.demo.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.Assert;
+
+/**
+ * 布隆过滤器，位图存放在Redis中并在本地保存一份副本
+ * <p>
+ * 判断只读本地副本，不访问网络；新增元素时一次pipeline写入Redis位图并在 bloom:{name}:add 频道通知其他节点，
+ * 其他节点收到通知后更新本地副本，并定期从Redis全量合并，弥补丢失的通知。
+ * 初始构建在本地完成后以BITOP OR合并到Redis，构建期间其他节点新增的元素不会丢失。
+ * 构建完成时在位图末尾（第bits位）写入完成标记，与位图同生共死：位图被淘汰后由SETBIT重新创建的位图没有标记，
+ * 不会被当作完整的位图加载。
+ * 从未成功加载或构建前一律返回可能存在；设置了Loader时，定时合并发现位图不完整会重新构建，
+ * 重新构建持有 lock:bloom:{name}:rebuild 锁，同一时间只有一个节点扫描数据源，其他节点等下次合并时加载。
+ */
+public class RedisBloomFilter implements MessageListener {
+    private static final Logger log = LoggerFactory.getLogger(RedisBloomFilter.class);
+
+    private static final String KEY_PREFIX = "bloom:";
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+
+    /**
+     * 重新构建锁的存活时间（毫秒），构建期间由看门狗续期
+     */
+    private static final long REBUILD_LEASE = 30000;
+
+    private final String key;
+
+    private final byte[] rawKey;
+
+    private final byte[] rawChannel;
+
+    private final String channel;
+
+    private final long bits;
+
+    private final int hashes;
+
+    private final AtomicLongArray words;
+
+    private volatile boolean ready;
+
+    private volatile Loader loader;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param name               过滤器名称，位图的key为 bloom:{name}
+     * @param expectedInsertions 预计元素数
+     * @param fpp                误判率
+     * @param refreshMillis      从Redis全量合并的间隔
+     */
+    public RedisBloomFilter(String name, long expectedInsertions, double fpp, long refreshMillis) {
+        Assert.hasText(name, "Parameter 'name' must not be empty.");
+        Assert.isTrue(expectedInsertions > 0, "Parameter 'expectedInsertions' must be positive.");
+        Assert.isTrue(fpp > 0 && fpp < 1, "Parameter 'fpp' must be between 0 and 1.");
+        this.key = KEY_PREFIX + name;
+        this.rawKey = STRING_SERIALIZER.serialize(key);
+        this.channel = key + ":add";
+        this.rawChannel = STRING_SERIALIZER.serialize(channel);
+        this.bits = Math.max(64, (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+        this.words = new AtomicLongArray((int) ((bits + 63) >>> 6));
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "bloom-filter-refresh-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    log.error("bloom filter refresh error", e);
+                }
+            }
+        }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 设置全量元素的来源，位图不存在或不完整时用于重新构建
+     *
+     * @param loader
+     */
+    public void setLoader(Loader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * 该过滤器需要订阅的topic
+     *
+     * @return
+     */
+    public Topic topic() {
+        return new ChannelTopic(channel);
+    }
+
+    /**
+     * 是否可能存在，只读本地副本；未加载完成时返回true
+     *
+     * @param element
+     * @return
+     */
+    public boolean mightContain(Object element) {
+        if (!ready) {
+            return true;
+        }
+        for (long offset : offsets(element)) {
+            if ((words.get((int) (offset >>> 6)) & (1L << (offset & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 新增元素：写入本地副本与Redis位图，并通知其他节点
+     *
+     * @param element
+     */
+    public void put(final Object element) {
+        final long[] offsets = offsets(element);
+        for (long offset : offsets) {
+            setLocal(offset);
+        }
+        JedisUtil.getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+            @Override
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                for (long offset : offsets) {
+                    connection.setBit(rawKey, offset, true);
+                }
+                connection.publish(rawChannel, STRING_SERIALIZER.serialize(String.valueOf(element)));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Redis中的位图是否已完成初始构建
+     *
+     * @return
+     */
+    public boolean isBuilt() {
+        Boolean built = JedisUtil.getRedisTemplate().execute(new RedisCallback<Boolean>() {
+            @Override
+            public Boolean doInRedis(RedisConnection connection) throws DataAccessException {
+                return connection.getBit(rawKey, bits);
+            }
+        });
+        return Boolean.TRUE.equals(built);
+    }
+
+    /**
+     * 开始初始构建，元素先写入本地，commit时一次合并到Redis
+     *
+     * @return
+     */
+    public Build build() {
+        return new Build();
+    }
+
+    /**
+     * 从Redis读取位图合并到本地副本，位图带有完成标记时开始按本地副本判断
+     *
+     * @return Redis中的位图是否完整
+     */
+    public boolean load() {
+        byte[] bitmap = JedisUtil.getRedisTemplate().execute(new RedisCallback<byte[]>() {
+            @Override
+            public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
+                return connection.get(rawKey);
+            }
+        });
+        if (bitmap == null || !isSet(bitmap, bits)) {
+            // 本地副本只增不减，已经加载过的节点继续按本地副本判断
+            return false;
+        }
+        merge(bitmap);
+        ready = true;
+        return true;
+    }
+
+    /**
+     * 加载位图，位图不存在或不完整且设置了Loader时重新构建；其他节点正在构建时不等待，直接返回
+     *
+     * @return 是否已按完整的位图判断
+     */
+    public boolean refresh() {
+        if (load()) {
+            return true;
+        }
+        Loader current = loader;
+        if (current == null) {
+            return false;
+        }
+        LockHandle lock = RedisLock.tryLock("lock:" + key + ":rebuild", REBUILD_LEASE);
+        if (lock == null) {
+            return false;
+        }
+        try {
+            lock.keepAlive();
+            // 拿到锁之前其他节点可能刚构建完成
+            if (load()) {
+                return true;
+            }
+            Build build = build();
+            current.load(build);
+            build.commit();
+            return true;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * 停止定时合并
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (message.getBody() != null) {
+            for (long offset : offsets(STRING_SERIALIZER.deserialize(message.getBody()))) {
+                setLocal(offset);
+            }
+        }
+    }
+
+    /**
+     * 双重散列计算元素的k个位置
+     */
+    private long[] offsets(Object element) {
+        byte[] bytes = String.valueOf(element).getBytes(StandardCharsets.UTF_8);
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        long h1 = mix(hash);
+        long h2 = mix(h1 + 0x9e3779b97f4a7c15L) | 1;
+        long[] offsets = new long[hashes];
+        for (int i = 0; i < hashes; i++) {
+            offsets[i] = Math.floorMod(h1 + i * h2, bits);
+        }
+        return offsets;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void setLocal(long offset) {
+        int index = (int) (offset >>> 6);
+        long mask = 1L << (offset & 63);
+        while (true) {
+            long word = words.get(index);
+            if ((word & mask) != 0 || words.compareAndSet(index, word, word | mask)) {
+                return;
+            }
+        }
+    }
+
+    private static boolean isSet(byte[] bitmap, long offset) {
+        int index = (int) (offset >>> 3);
+        return index < bitmap.length && (bitmap[index] & (0x80 >>> (offset & 7))) != 0;
+    }
+
+    /**
+     * Redis位图的第n位为第n/8个字节的高位起第n%8位
+     */
+    private void merge(byte[] bitmap) {
+        int length = (int) Math.min(bitmap.length, (bits + 7) >>> 3);
+        for (int i = 0; i < length; i++) {
+            if (bitmap[i] == 0) {
+                continue;
+            }
+            for (int j = 0; j < 8; j++) {
+                if ((bitmap[i] & (0x80 >>> j)) != 0) {
+                    setLocal(((long) i << 3) + j);
+                }
+            }
+        }
+    }
+
+    /**
+     * 初始构建
+     */
+    public class Build {
+
+        private final byte[] bitmap = new byte[(int) ((bits + 7) >>> 3)];
+
+        private Build() {
+        }
+
+        public Build add(Object element) {
+            for (long offset : offsets(element)) {
+                bitmap[(int) (offset >>> 3)] |= 0x80 >>> (offset & 7);
+            }
+            return this;
+        }
+
+        public Build addAll(Collection<?> elements) {
+            for (Object element : elements) {
+                add(element);
+            }
+            return this;
+        }
+
+        /**
+         * 以BITOP OR合并到Redis位图并写入完成标记，同时合并到本地副本，完成后开始按本地副本判断
+         */
+        public void commit() {
+            final byte[] rawTempKey = STRING_SERIALIZER.serialize(key + ":building:" + System.nanoTime());
+            JedisUtil.getRedisTemplate().executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    connection.pSetEx(rawTempKey, TimeUnit.MINUTES.toMillis(10), bitmap);
+                    connection.bitOp(RedisStringCommands.BitOperation.OR, rawKey, rawKey, rawTempKey);
+                    connection.del(rawTempKey);
+                    connection.setBit(rawKey, bits, true);
+                    return null;
+                }
+            });
+            merge(bitmap);
+            ready = true;
+        }
+    }
+
+    /**
+     * 全量元素的来源
+     */
+    public interface Loader {
+        /**
+         * 把全部元素加入build
+         *
+         * @param build
+         */
+        void load(Build build);
+    }
+}
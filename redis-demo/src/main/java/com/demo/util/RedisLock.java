@@ -0,0 +1,168 @@
+package com.demo.util;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.Assert;
+
+import redis.clients.jedis.JedisCommands;
+
+/**
+ * 分布式锁
+ * <p>
+ * 加锁为一条 SET key token NX PX 命令，token为本次加锁生成的唯一值；
+ * 解锁通过脚本比较token后再删除，锁过期后被他人获得时不会误删，并在 lock:release 频道发布释放通知；
+ * 等待加锁的线程在本地挂起，收到通知后立即重试，通知丢失（如锁自然过期）时按随机退避兜底重试。
+ */
+public class RedisLock {
+    private static final Logger log = LoggerFactory.getLogger(RedisLock.class);
+
+    /**
+     * 锁释放通知频道，消息为锁的key
+     */
+    public static final String RELEASE_CHANNEL = "lock:release";
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+
+    /**
+     * token一致才删除，删除后发布释放通知
+     */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<Long>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then "
+                    + "redis.call('del', KEYS[1]) "
+                    + "redis.call('publish', ARGV[2], KEYS[1]) "
+                    + "return 1 "
+                    + "else return 0 end", Long.class);
+
+    /**
+     * 等待锁时的最短、最长重试间隔（毫秒）
+     */
+    private static final long MIN_BACKOFF = 10;
+    private static final long MAX_BACKOFF = 500;
+
+    private RedisLock() {
+    }
+
+    /**
+     * 尝试加锁一次
+     *
+     * @param key
+     * @param leaseMillis 锁的存活时间
+     * @return 加锁成功返回锁，否则返回null
+     */
+    public static LockHandle tryLock(final String key, final long leaseMillis) {
+        Assert.hasText(key, "Parameter 'key' must not be empty.");
+        final String token = UUID.randomUUID().toString();
+        try {
+            String result = JedisUtil.getRedisTemplate().execute(new RedisCallback<String>() {
+                @Override
+                public String doInRedis(RedisConnection connection) throws DataAccessException {
+                    JedisCommands commands = (JedisCommands) connection.getNativeConnection();
+                    return commands.set(key, token, "NX", "PX", leaseMillis);
+                }
+            });
+            return "OK".equals(result) ? new LockHandle(key, token, leaseMillis) : null;
+        } catch (Exception e) {
+            log.error("Lock: set redis occured an exception", e);
+            return null;
+        }
+    }
+
+    /**
+     * 在waitMillis内尝试加锁，等待期间收到释放通知立即重试，否则按随机退避重试
+     *
+     * @param key
+     * @param leaseMillis 锁的存活时间
+     * @param waitMillis  最长等待时间
+     * @return 加锁成功返回锁，超时返回null
+     */
+    public static LockHandle tryLock(final String key, final long leaseMillis, long waitMillis) throws InterruptedException {
+        return await(key, waitMillis, new Attempt<LockHandle>() {
+            @Override
+            public LockHandle attempt() {
+                return tryLock(key, leaseMillis);
+            }
+        });
+    }
+
+    /**
+     * 在waitMillis内反复尝试直到attempt返回非null，等待期间收到key的释放通知立即重试，否则按随机退避重试
+     *
+     * @param key
+     * @param waitMillis
+     * @param attempt
+     * @return attempt的结果，超时返回null
+     */
+    static <T> T await(String key, long waitMillis, Attempt<T> attempt) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        long backoff = MIN_BACKOFF;
+        LockWaiters.Waiter waiter = LockWaiters.register(key);
+        try {
+            while (true) {
+                long observed = waiter.generation();
+                T result = attempt.attempt();
+                if (result != null) {
+                    return result;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                waiter.await(observed, Math.min(remaining, ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1)));
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+        } finally {
+            LockWaiters.unregister(key, waiter);
+        }
+    }
+
+    /**
+     * 比较token后释放锁
+     *
+     * @param key
+     * @param token
+     * @return 是否释放成功
+     */
+    static boolean release(String key, String token) {
+        try {
+            Long result = execute(RELEASE_SCRIPT, key, token, RELEASE_CHANNEL);
+            if (result != null && result > 0) {
+                // 本节点的等待者不必等待频道消息
+                LockWaiters.signal(key);
+                return true;
+            }
+            return false;
+        } catch (Exception e) {
+            log.error("Unlock: release redis lock occured an exception", e);
+            return false;
+        }
+    }
+
+    /**
+     * 执行锁脚本，参数与返回值按字符串处理
+     *
+     * @param script
+     * @param key
+     * @param args
+     * @return
+     */
+    static Long execute(RedisScript<Long> script, String key, Object... args) {
+        return JedisUtil.getRedisTemplate().execute(script, STRING_SERIALIZER, null, Collections.singletonList(key), args);
+    }
+
+    /**
+     * 一次加锁尝试，成功返回非null
+     */
+    interface Attempt<T> {
+        T attempt();
+    }
+}
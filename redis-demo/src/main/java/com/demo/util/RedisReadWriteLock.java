@@ -0,0 +1,258 @@
+package com.demo.util;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * 可重入的分布式读写锁
+ * <p>
+ * 写锁是key本身（值为持有者token，带存活时间）；读锁是有序集合 key:readers，成员为持有者token，
+ * 分数为该读者的到期时间，每个读者各自到期，不会续期其他读者。加读锁与加写锁前先移除已到期的读者，
+ * 崩溃的读者在到期后不再阻塞写锁。
+ * 读锁可被多个线程同时持有，写锁独占；持有写锁的线程可以再获取读锁（降级），持有读锁时不能获取写锁。
+ * 每个线程在本地记录重入次数，重入不访问Redis；加锁与解锁均为一次脚本调用，释放后发布释放通知。
+ * 到期时间按Redis服务端时间计算，需要Redis 3.2及以上（脚本效果复制）。
+ */
+public class RedisReadWriteLock {
+
+    private static final String READ = "read";
+    private static final String WRITE = "write";
+
+    private static final String NOW = "redis.replicate_commands() "
+            + "local time = redis.call('time') "
+            + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) ";
+
+    /**
+     * KEYS：写锁、读者；ARGV：token、存活时间
+     */
+    private static final RedisScript<Long> READ_LOCK_SCRIPT = new DefaultRedisScript<Long>(
+            NOW
+                    + "local writer = redis.call('get', KEYS[1]) "
+                    + "if writer and writer ~= ARGV[1] then "
+                    + "  return 0 "
+                    + "end "
+                    + "redis.call('zremrangebyscore', KEYS[2], '-inf', now) "
+                    + "redis.call('zadd', KEYS[2], now + tonumber(ARGV[2]), ARGV[1]) "
+                    // 有序集合本身至少存活到最晚到期的读者，成员各自按分数到期
+                    + "if redis.call('pttl', KEYS[2]) < tonumber(ARGV[2]) then "
+                    + "  redis.call('pexpire', KEYS[2], ARGV[2]) "
+                    + "end "
+                    + "return 1", Long.class);
+
+    /**
+     * KEYS：写锁、读者；ARGV：token、存活时间
+     */
+    private static final RedisScript<Long> WRITE_LOCK_SCRIPT = new DefaultRedisScript<Long>(
+            NOW
+                    + "if redis.call('exists', KEYS[1]) == 1 then "
+                    + "  return 0 "
+                    + "end "
+                    + "redis.call('zremrangebyscore', KEYS[2], '-inf', now) "
+                    + "if redis.call('zcard', KEYS[2]) > 0 then "
+                    + "  return 0 "
+                    + "end "
+                    + "redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2]) "
+                    + "return 1", Long.class);
+
+    /**
+     * KEYS：写锁、读者；ARGV：token、释放通知频道、释放的模式；锁已过期或不属于token时返回0
+     */
+    private static final RedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<Long>(
+            NOW
+                    + "if ARGV[3] == 'write' then "
+                    + "  if redis.call('get', KEYS[1]) ~= ARGV[1] then "
+                    + "    return 0 "
+                    + "  end "
+                    + "  redis.call('del', KEYS[1]) "
+                    + "  redis.call('publish', ARGV[2], KEYS[1]) "
+                    + "  return 1 "
+                    + "end "
+                    + "local expireAt = redis.call('zscore', KEYS[2], ARGV[1]) "
+                    + "redis.call('zrem', KEYS[2], ARGV[1]) "
+                    + "redis.call('zremrangebyscore', KEYS[2], '-inf', now) "
+                    // 最后一个读者释放时才通知等待写锁的线程
+                    + "if redis.call('zcard', KEYS[2]) == 0 then "
+                    + "  redis.call('publish', ARGV[2], KEYS[1]) "
+                    + "end "
+                    + "if not expireAt or tonumber(expireAt) <= now then "
+                    + "  return 0 "
+                    + "end "
+                    + "return 1", Long.class);
+
+    private final String key;
+
+    private final String readersKey;
+
+    private final long leaseMillis;
+
+    private final ThreadLocal<Hold> holds = new ThreadLocal<Hold>() {
+        @Override
+        protected Hold initialValue() {
+            return new Hold();
+        }
+    };
+
+    private final ReadLock readLock = new ReadLock();
+
+    private final WriteLock writeLock = new WriteLock();
+
+    public RedisReadWriteLock(String key, long leaseMillis) {
+        this.key = key;
+        this.readersKey = key + ":readers";
+        this.leaseMillis = leaseMillis;
+    }
+
+    public ReadLock readLock() {
+        return readLock;
+    }
+
+    public WriteLock writeLock() {
+        return writeLock;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    private boolean acquire(String mode, long waitMillis) throws InterruptedException {
+        final Hold hold = holds.get();
+        final RedisScript<Long> redisScript = READ.equals(mode) ? READ_LOCK_SCRIPT : WRITE_LOCK_SCRIPT;
+        Boolean acquired = RedisLock.await(key, waitMillis, new RedisLock.Attempt<Boolean>() {
+            @Override
+            public Boolean attempt() {
+                Long result = JedisUtil.eval(redisScript, Arrays.asList(key, readersKey), hold.token, String.valueOf(leaseMillis));
+                return result != null && result > 0 ? Boolean.TRUE : null;
+            }
+        });
+        return acquired != null;
+    }
+
+    /**
+     * @return 锁已过期或已被他人持有时返回false
+     */
+    private boolean release(String mode) {
+        Long result = JedisUtil.eval(UNLOCK_SCRIPT, Arrays.asList(key, readersKey), holds.get().token, RedisLock.RELEASE_CHANNEL, mode);
+        LockWaiters.signal(key);
+        return result != null && result > 0;
+    }
+
+    /**
+     * 读锁
+     */
+    public class ReadLock {
+
+        /**
+         * 在waitMillis内尝试获取读锁，当前线程已持有读锁时直接成功
+         *
+         * @param waitMillis
+         * @return
+         */
+        public boolean tryLock(long waitMillis) throws InterruptedException {
+            Hold hold = holds.get();
+            if (hold.reads > 0) {
+                hold.reads++;
+                return true;
+            }
+            if (!acquire(READ, waitMillis)) {
+                return false;
+            }
+            hold.reads = 1;
+            return true;
+        }
+
+        /**
+         * 释放一次读锁，最后一次释放时访问Redis
+         *
+         * @return 读锁在释放前已过期时返回false
+         */
+        public boolean unlock() {
+            Hold hold = holds.get();
+            if (hold.reads == 0) {
+                throw new IllegalMonitorStateException("Read lock '" + key + "' is not held by current thread.");
+            }
+            if (--hold.reads > 0) {
+                return true;
+            }
+            try {
+                return release(READ);
+            } finally {
+                hold.clearIfFree(holds);
+            }
+        }
+
+        public int getHoldCount() {
+            return holds.get().reads;
+        }
+    }
+
+    /**
+     * 写锁
+     */
+    public class WriteLock {
+
+        /**
+         * 在waitMillis内尝试获取写锁，当前线程已持有写锁时直接成功
+         *
+         * @param waitMillis
+         * @return
+         * @throws IllegalStateException 当前线程只持有读锁，不支持升级为写锁
+         */
+        public boolean tryLock(long waitMillis) throws InterruptedException {
+            Hold hold = holds.get();
+            if (hold.writes > 0) {
+                hold.writes++;
+                return true;
+            }
+            if (hold.reads > 0) {
+                throw new IllegalStateException("Read lock '" + key + "' cannot be upgraded to write lock.");
+            }
+            if (!acquire(WRITE, waitMillis)) {
+                return false;
+            }
+            hold.writes = 1;
+            return true;
+        }
+
+        /**
+         * 释放一次写锁，最后一次释放时访问Redis
+         *
+         * @return 写锁在释放前已过期或已被他人持有时返回false
+         */
+        public boolean unlock() {
+            Hold hold = holds.get();
+            if (hold.writes == 0) {
+                throw new IllegalMonitorStateException("Write lock '" + key + "' is not held by current thread.");
+            }
+            if (--hold.writes > 0) {
+                return true;
+            }
+            try {
+                return release(WRITE);
+            } finally {
+                hold.clearIfFree(holds);
+            }
+        }
+
+        public int getHoldCount() {
+            return holds.get().writes;
+        }
+    }
+
+    /**
+     * 当前线程的token与重入次数
+     */
+    private static class Hold {
+        private final String token = UUID.randomUUID().toString();
+        private int reads;
+        private int writes;
+
+        private void clearIfFree(ThreadLocal<Hold> holds) {
+            if (reads == 0 && writes == 0) {
+                holds.remove();
+            }
+        }
+    }
+}
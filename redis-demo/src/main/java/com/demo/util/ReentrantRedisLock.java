@@ -0,0 +1,90 @@
+package com.demo.util;
+
+/**
+ * 可重入的分布式锁
+ * <p>
+ * 同一个实例在多个线程间共享，每个线程在本地记录持有次数：
+ * 重入只增加计数，不访问Redis；最外层解锁时才释放Redis中的锁。
+ */
+public class ReentrantRedisLock {
+
+    private final String key;
+
+    private final long leaseMillis;
+
+    /**
+     * 是否由看门狗续期
+     */
+    private final boolean keepAlive;
+
+    private final ThreadLocal<Hold> holds = new ThreadLocal<Hold>();
+
+    public ReentrantRedisLock(String key, long leaseMillis) {
+        this(key, leaseMillis, false);
+    }
+
+    public ReentrantRedisLock(String key, long leaseMillis, boolean keepAlive) {
+        this.key = key;
+        this.leaseMillis = leaseMillis;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * 在waitMillis内尝试加锁，当前线程已持有时直接成功
+     *
+     * @param waitMillis
+     * @return
+     */
+    public boolean tryLock(long waitMillis) throws InterruptedException {
+        Hold hold = holds.get();
+        if (hold != null) {
+            hold.count++;
+            return true;
+        }
+        LockHandle handle = RedisLock.tryLock(key, leaseMillis, waitMillis);
+        if (handle == null) {
+            return false;
+        }
+        if (keepAlive) {
+            handle.keepAlive();
+        }
+        holds.set(new Hold(handle));
+        return true;
+    }
+
+    /**
+     * 解锁，持有次数归零时释放Redis中的锁
+     */
+    public void unlock() {
+        Hold hold = holds.get();
+        if (hold == null) {
+            throw new IllegalMonitorStateException("Lock '" + key + "' is not held by current thread.");
+        }
+        if (--hold.count == 0) {
+            holds.remove();
+            hold.handle.release();
+        }
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return holds.get() != null;
+    }
+
+    public int getHoldCount() {
+        Hold hold = holds.get();
+        return hold == null ? 0 : hold.count;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    private static class Hold {
+        private final LockHandle handle;
+        private int count = 1;
+
+        private Hold(LockHandle handle) {
+            this.handle = handle;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.demo.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 分数增量的写缓冲（write-behind）
+ * <p>
+ * 同一(榜单, 成员)的增量先在本地累加，按固定间隔或累积的成员数达到阈值时交给Sink写入Redis，
+ * 数据最多延迟一个刷写间隔；关闭时会刷写剩余的增量。
+ * <p>
+ * 每次刷写按成员数切分为多个批次，每个批次有唯一ID与生成时间，Sink需保证同一ID只生效一次。
+ * 写入失败（包括已执行但读取结果超时）的批次原样保留，下次刷写时先以相同的ID重试，
+ * 已写入的批次不会重复计入。
+ */
+public class ScoreBuffer {
+    private static final Logger log = LoggerFactory.getLogger(ScoreBuffer.class);
+
+    /**
+     * 增量的写入方
+     */
+    public interface Sink {
+        /**
+         * @param batchId   批次ID，重试时不变
+         * @param createdAt 批次生成时间（毫秒），重试时不变
+         * @param deltas    榜单 -> (成员 -> 增量)
+         */
+        void write(String batchId, long createdAt, Map<String, Map<Object, Double>> deltas);
+    }
+
+    /**
+     * 每个批次最多的成员数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private static final BiFunction<Double, Double, Double> SUM = new BiFunction<Double, Double, Double>() {
+        @Override
+        public Double apply(Double a, Double b) {
+            return a + b;
+        }
+    };
+
+    private final ConcurrentHashMap<Key, Double> pending = new ConcurrentHashMap<Key, Double>();
+
+    /**
+     * 写入失败等待重试的批次，按生成顺序排列
+     */
+    private final ConcurrentLinkedQueue<Batch> failed = new ConcurrentLinkedQueue<Batch>();
+
+    /**
+     * 批次ID的前缀，区分不同的实例
+     */
+    private final String idPrefix = UUID.randomUUID().toString();
+
+    private long sequence;
+
+    private final Sink sink;
+
+    /**
+     * 缓冲的成员数达到该值时立即刷写
+     */
+    private final int maxPending;
+
+    private final ScheduledExecutorService executor;
+
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param sink
+     * @param flushIntervalMillis 刷写间隔，即最大延迟
+     * @param maxPending          缓冲的成员数达到该值时立即刷写
+     */
+    public ScoreBuffer(Sink sink, long flushIntervalMillis, int maxPending) {
+        this.sink = sink;
+        this.maxPending = maxPending;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "score-buffer-flusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(flushTask, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 累加增量
+     *
+     * @param board
+     * @param member
+     * @param delta
+     */
+    public void add(String board, Object member, double delta) {
+        pending.merge(new Key(board, member), delta, SUM);
+        if (pending.size() >= maxPending && !flushing.get()) {
+            executor.execute(flushTask);
+        }
+    }
+
+    /**
+     * 先重试失败的批次，再把当前缓冲的增量切分为批次写入Sink
+     */
+    public void flush() {
+        if (!flushing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Iterator<Batch> retries = failed.iterator();
+            while (retries.hasNext()) {
+                if (!write(retries.next())) {
+                    // Redis仍不可用，新的增量留在缓冲中继续累加
+                    return;
+                }
+                retries.remove();
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<Batch> batches = new ArrayList<Batch>();
+            Batch batch = null;
+            for (Key key : pending.keySet()) {
+                // remove是原子的，取走后并发的add会生成新的条目，不会丢失增量
+                Double delta = pending.remove(key);
+                if (delta == null) {
+                    continue;
+                }
+                if (batch == null || batch.size == BATCH_SIZE) {
+                    batch = new Batch(idPrefix + ":" + (++sequence), System.currentTimeMillis());
+                    batches.add(batch);
+                }
+                batch.add(key, delta);
+            }
+            for (Batch b : batches) {
+                if (!failed.isEmpty() || !write(b)) {
+                    // 保持顺序，前面有失败的批次时后面的批次一起等待重试
+                    failed.add(b);
+                }
+            }
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    /**
+     * 写入一个批次，失败时返回false
+     */
+    private boolean write(Batch batch) {
+        try {
+            sink.write(batch.id, batch.createdAt, batch.deltas);
+            return true;
+        } catch (Exception e) {
+            log.error("score buffer flush error, batch " + batch.id + " will be retried", e);
+            return false;
+        }
+    }
+
+    /**
+     * 停止定时刷写并写入剩余的增量
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        if (!failed.isEmpty() || !pending.isEmpty()) {
+            log.error("score buffer shutdown with " + failed.size() + " unwritten batches and "
+                    + pending.size() + " pending members");
+        }
+    }
+
+    /**
+     * 一次写入的批次
+     */
+    private static class Batch {
+        private final String id;
+        private final long createdAt;
+        private final Map<String, Map<Object, Double>> deltas = new HashMap<String, Map<Object, Double>>();
+        private int size;
+
+        private Batch(String id, long createdAt) {
+            this.id = id;
+            this.createdAt = createdAt;
+        }
+
+        private void add(Key key, double delta) {
+            Map<Object, Double> members = deltas.get(key.board);
+            if (members == null) {
+                members = new HashMap<Object, Double>();
+                deltas.put(key.board, members);
+            }
+            members.put(key.member, delta);
+            size++;
+        }
+    }
+
+    private static class Key {
+        private final String board;
+        private final Object member;
+
+        private Key(String board, Object member) {
+            this.board = board;
+            this.member = member;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return board.equals(key.board) && member.equals(key.member);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * board.hashCode() + member.hashCode();
+        }
+    }
+}
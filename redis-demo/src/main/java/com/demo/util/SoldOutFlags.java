@@ -0,0 +1,120 @@
+package com.demo.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+/**
+ * 热点计数器的售罄标记
+ * <p>
+ * 计数器第一次返回非正数时在本地标记售罄，并在 stock:soldout 频道通知其他节点；
+ * 标记期间调用方直接返回售罄，不再访问Redis，直到补货时在 stock:restock 频道通知清除标记。
+ * <p>
+ * 不同节点发布的售罄与补货通知到达顺序不确定，补货之后才到达的售罄通知会留下错误的标记，
+ * 因此标记只保留ttl毫秒，过期后调用方重新访问Redis确认，仍售罄时再次标记。
+ */
+public class SoldOutFlags {
+    private static final Logger log = LoggerFactory.getLogger(SoldOutFlags.class);
+
+    /**
+     * 售罄通知频道，消息为计数器的key
+     */
+    public static final String SOLD_OUT_CHANNEL = "stock:soldout";
+
+    /**
+     * 补货通知频道，消息为计数器的key
+     */
+    public static final String RESTOCK_CHANNEL = "stock:restock";
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+
+    /**
+     * key -> 标记的过期时间
+     */
+    private static final ConcurrentHashMap<String, Long> soldOut = new ConcurrentHashMap<String, Long>();
+
+    private static volatile long ttlMillis = 1000;
+
+    private SoldOutFlags() {
+    }
+
+    /**
+     * 设置售罄标记的保留时间，即售罄后多久重新访问Redis确认
+     *
+     * @param ttlMillis
+     */
+    public static void setTtl(long ttlMillis) {
+        SoldOutFlags.ttlMillis = ttlMillis;
+    }
+
+    public static boolean isSoldOut(String key) {
+        Long expireAt = soldOut.get(key);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt > System.currentTimeMillis()) {
+            return true;
+        }
+        soldOut.remove(key, expireAt);
+        return false;
+    }
+
+    /**
+     * 标记售罄并通知其他节点，已有未过期的标记时只延长标记，不重复通知
+     *
+     * @param key
+     */
+    public static void markSoldOut(String key) {
+        long now = System.currentTimeMillis();
+        Long previous = soldOut.put(key, now + ttlMillis);
+        if (previous == null || previous <= now) {
+            publish(SOLD_OUT_CHANNEL, key);
+        }
+    }
+
+    /**
+     * 清除售罄标记并通知其他节点
+     *
+     * @param key
+     */
+    public static void restock(String key) {
+        soldOut.remove(key);
+        publish(RESTOCK_CHANNEL, key);
+    }
+
+    /**
+     * 收到其他节点的通知时只修改本地标记
+     *
+     * @param channel
+     * @param key
+     */
+    static void onMessage(String channel, String key) {
+        if (SOLD_OUT_CHANNEL.equals(channel)) {
+            soldOut.put(key, System.currentTimeMillis() + ttlMillis);
+        } else if (RESTOCK_CHANNEL.equals(channel)) {
+            soldOut.remove(key);
+        }
+    }
+
+    private static void publish(String channel, String key) {
+        final byte[] rawChannel = STRING_SERIALIZER.serialize(channel);
+        final byte[] rawKey = STRING_SERIALIZER.serialize(key);
+        try {
+            JedisUtil.getRedisTemplate().execute(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    connection.publish(rawChannel, rawKey);
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            // 通知丢失时其他节点仍会在访问Redis后自行标记
+            log.error("publish " + channel + " occured an exception", e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.demo.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+/**
+ * 监听售罄与补货通知，同步本节点的售罄标记
+ */
+public class SoldOutListener implements MessageListener {
+
+    private final StringRedisSerializer serializer = new StringRedisSerializer();
+
+    /**
+     * 该监听器需要订阅的topic
+     *
+     * @return
+     */
+    public static Collection<? extends Topic> topics() {
+        return Arrays.asList(new ChannelTopic(SoldOutFlags.SOLD_OUT_CHANNEL), new ChannelTopic(SoldOutFlags.RESTOCK_CHANNEL));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (message.getBody() != null) {
+            SoldOutFlags.onMessage(serializer.deserialize(message.getChannel()), serializer.deserialize(message.getBody()));
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.demo.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * 本地库存令牌池
+ * <p>
+ * 每个节点按块从Redis库存计数器中批量租用令牌，购买请求只在本地计数器上CAS扣减，大部分请求不访问Redis；
+ * 本地令牌用完再租下一块，Redis也没有库存时标记售罄，recheck间隔内的请求直接返回售罄。
+ * 一段时间没有请求的key会把剩余令牌归还Redis，关闭时归还全部令牌。
+ * <p>
+ * 其他节点持有的令牌对本节点不可见，售罄判断可能早于实际售完，令牌归还后重新租用即可购买。
+ * <p>
+ * 库存key旁的 key:epoch 为库存版本，重新设置库存时递增；令牌记录租用时的版本，
+ * 归还时版本已变化则丢弃，旧库存的令牌不会加到新库存上。
+ */
+public class StockTokenPool {
+    private static final Logger log = LoggerFactory.getLogger(StockTokenPool.class);
+
+    /**
+     * 租用成功
+     */
+    public static final int ACQUIRED = 1;
+
+    /**
+     * 库存不足
+     */
+    public static final int SOLD_OUT = 0;
+
+    /**
+     * 未设置库存
+     */
+    public static final int NOT_ON_SALE = -2;
+
+    /**
+     * KEYS：库存、库存版本；ARGV[1]：租用数量。返回{实际租到的数量, 库存版本}，未设置库存时数量为-1
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> LEASE_SCRIPT = new DefaultRedisScript<List>(
+            "local epoch = tonumber(redis.call('get', KEYS[2]) or '0') "
+                    + "local stock = redis.call('get', KEYS[1]) "
+                    + "if stock == false then return {-1, epoch} end "
+                    + "stock = tonumber(stock) "
+                    + "if stock <= 0 then return {0, epoch} end "
+                    + "local count = math.min(stock, tonumber(ARGV[1])) "
+                    + "redis.call('decrby', KEYS[1], count) "
+                    + "return {count, epoch}", List.class);
+
+    /**
+     * KEYS：库存、库存版本；ARGV：归还数量、租用时的库存版本。
+     * 库存key已删除（活动结束）或库存已被重新设置时不再归还
+     */
+    private static final RedisScript<Long> RETURN_SCRIPT = new DefaultRedisScript<Long>(
+            "if redis.call('exists', KEYS[1]) == 0 then return 0 end "
+                    + "if tonumber(redis.call('get', KEYS[2]) or '0') ~= tonumber(ARGV[2]) then return 0 end "
+                    + "redis.call('incrby', KEYS[1], ARGV[1]) "
+                    + "return 1", Long.class);
+
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+
+    /**
+     * 每次租用的令牌数
+     */
+    private final int blockSize;
+
+    /**
+     * 空闲多久后归还剩余令牌（毫秒）
+     */
+    private final long idleReturnMillis;
+
+    /**
+     * 售罄后多久再去Redis确认（毫秒）
+     */
+    private final long soldOutRecheckMillis;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param blockSize            每次租用的令牌数
+     * @param idleReturnMillis     空闲多久后归还剩余令牌
+     * @param soldOutRecheckMillis 售罄后多久再去Redis确认
+     */
+    public StockTokenPool(int blockSize, long idleReturnMillis, long soldOutRecheckMillis) {
+        this.blockSize = blockSize;
+        this.idleReturnMillis = idleReturnMillis;
+        this.soldOutRecheckMillis = soldOutRecheckMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "stock-token-returner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                returnIdle();
+            }
+        }, idleReturnMillis, idleReturnMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 库存版本的key，与库存使用相同的hash tag
+     *
+     * @param key 库存计数器
+     * @return
+     */
+    public static String epochKey(String key) {
+        return key + ":epoch";
+    }
+
+    /**
+     * 从本地令牌中扣减quantity个，不足时从Redis租用
+     *
+     * @param key      库存计数器
+     * @param quantity
+     * @return ACQUIRED、SOLD_OUT或NOT_ON_SALE
+     */
+    public int tryAcquire(String key, int quantity) {
+        Slot slot = slot(key);
+        slot.accessedAt = System.currentTimeMillis();
+        if (take(slot, quantity)) {
+            return ACQUIRED;
+        }
+        if (slot.soldOutUntil > System.currentTimeMillis()) {
+            return SOLD_OUT;
+        }
+        synchronized (slot) {
+            while (true) {
+                if (take(slot, quantity)) {
+                    return ACQUIRED;
+                }
+                if (slot.soldOutUntil > System.currentTimeMillis()) {
+                    return SOLD_OUT;
+                }
+                List<?> result = JedisUtil.eval(LEASE_SCRIPT, Arrays.asList(key, epochKey(key)), Math.max(blockSize, quantity));
+                long leased = ((Number) result.get(0)).longValue();
+                long epoch = ((Number) result.get(1)).longValue();
+                if (epoch != slot.epoch) {
+                    // 库存已被重新设置，本地剩余的旧令牌作废
+                    slot.tokens.set(0);
+                    slot.epoch = epoch;
+                }
+                if (leased < 0) {
+                    return NOT_ON_SALE;
+                }
+                if (leased == 0) {
+                    slot.soldOutUntil = System.currentTimeMillis() + soldOutRecheckMillis;
+                    return SOLD_OUT;
+                }
+                slot.tokens.addAndGet(leased);
+            }
+        }
+    }
+
+    /**
+     * 把未使用的令牌放回本地，如购买未成功时
+     *
+     * @param key
+     * @param quantity
+     */
+    public void release(String key, int quantity) {
+        slot(key).tokens.addAndGet(quantity);
+    }
+
+    /**
+     * 本地剩余令牌数
+     *
+     * @param key
+     * @return
+     */
+    public long available(String key) {
+        Slot slot = slots.get(key);
+        return slot == null ? 0 : slot.tokens.get();
+    }
+
+    /**
+     * 丢弃本地状态，如库存被重新设置时
+     *
+     * @param key
+     */
+    public void reset(String key) {
+        slots.remove(key);
+    }
+
+    /**
+     * 停止定时归还并归还全部剩余令牌
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+            returnTokens(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void returnIdle() {
+        long idleBefore = System.currentTimeMillis() - idleReturnMillis;
+        for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+            if (entry.getValue().accessedAt < idleBefore) {
+                returnTokens(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void returnTokens(String key, Slot slot) {
+        synchronized (slot) {
+            long count = slot.tokens.getAndSet(0);
+            if (count <= 0) {
+                return;
+            }
+            try {
+                if (JedisUtil.eval(RETURN_SCRIPT, Arrays.asList(key, epochKey(key)), count, slot.epoch) > 0) {
+                    // 归还的令牌其他节点可以继续租用
+                    SoldOutFlags.restock(key);
+                }
+            } catch (Exception e) {
+                log.error("stock token return error, tokens kept locally", e);
+                slot.tokens.addAndGet(count);
+            }
+        }
+    }
+
+    private Slot slot(String key) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            Slot created = new Slot();
+            slot = slots.putIfAbsent(key, created);
+            if (slot == null) {
+                slot = created;
+            }
+        }
+        return slot;
+    }
+
+    private static boolean take(Slot slot, int quantity) {
+        while (true) {
+            long tokens = slot.tokens.get();
+            if (tokens < quantity) {
+                return false;
+            }
+            if (slot.tokens.compareAndSet(tokens, tokens - quantity)) {
+                return true;
+            }
+        }
+    }
+
+    private static class Slot {
+        private final AtomicLong tokens = new AtomicLong();
+        private volatile long accessedAt;
+        private volatile long soldOutUntil;
+        /**
+         * 本地令牌租用时的库存版本
+         */
+        private volatile long epoch;
+    }
+}
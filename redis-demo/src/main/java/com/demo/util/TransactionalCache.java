@@ -0,0 +1,139 @@
+package com.demo.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 与数据库事务一致的缓存写入与失效
+ * <p>
+ * 在事务中调用时登记为事务同步，提交后才执行，回滚时丢弃；不在事务中时立即执行。
+ * 失效操作可在延迟后再执行一次（延迟双删），删除在提交前被并发读请求用旧数据回填的缓存。
+ * 缓存操作失败只记录日志，不影响已提交的事务。
+ */
+public class TransactionalCache {
+    private static final Logger log = LoggerFactory.getLogger(TransactionalCache.class);
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "cache-double-delete");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * 第二次失效的延迟（毫秒），不大于0不做第二次失效
+     */
+    private static volatile long doubleDeleteDelayMillis;
+
+    private TransactionalCache() {
+    }
+
+    public static void setDoubleDeleteDelay(long doubleDeleteDelayMillis) {
+        TransactionalCache.doubleDeleteDelayMillis = doubleDeleteDelayMillis;
+    }
+
+    /**
+     * 事务提交后执行，不在事务中时立即执行
+     *
+     * @param action
+     */
+    public static void afterCommit(final Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            runQuietly(action);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                runQuietly(action);
+            }
+        });
+    }
+
+    /**
+     * 事务提交后失效缓存，并按配置延迟后再失效一次
+     *
+     * @param invalidation
+     */
+    public static void invalidate(final Runnable invalidation) {
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                invalidation.run();
+                long delay = doubleDeleteDelayMillis;
+                if (delay > 0) {
+                    SCHEDULER.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            runQuietly(invalidation);
+                        }
+                    }, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    /**
+     * 事务提交后删除key，并按配置延迟后再删除一次
+     *
+     * @param keys
+     */
+    public static void delete(final String... keys) {
+        invalidate(new Runnable() {
+            @Override
+            public void run() {
+                for (String key : keys) {
+                    JedisUtil.deleteKey(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * 事务提交后设置value（永久）
+     *
+     * @param key
+     * @param value
+     */
+    public static void set(final String key, final Object value) {
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                JedisUtil.set(key, value);
+            }
+        });
+    }
+
+    /**
+     * 事务提交后设置value
+     *
+     * @param key
+     * @param value
+     * @param time  过期时间（秒）
+     */
+    public static void set(final String key, final Object value, final int time) {
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                JedisUtil.set(key, value, time);
+            }
+        });
+    }
+
+    private static void runQuietly(Runnable action) {
+        try {
+            action.run();
+        } catch (Exception e) {
+            log.error("cache operation after commit occured an exception", e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.demo;
+
+import com.demo.util.JedisUtil;
+import org.junit.Before;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.testcontainers.containers.GenericContainer;
+
+/**
+ * 在容器中启动真实的Redis并初始化JedisUtil，Lua脚本按线上方式执行
+ * <p>
+ * JedisUtil只能初始化一次，所有测试共用同一个容器，每个测试前清空数据库。
+ * 脚本使用了redis.replicate_commands()，需要3.2以上版本。
+ */
+public abstract class RedisTestSupport {
+
+    private static final int REDIS_PORT = 6379;
+
+    protected static final RedisTemplate<String, Object> redisTemplate;
+
+    static {
+        GenericContainer<?> redis = new GenericContainer("redis:5.0.7").withExposedPorts(REDIS_PORT);
+        redis.start();
+        JedisConnectionFactory connectionFactory = new JedisConnectionFactory();
+        connectionFactory.setHostName(redis.getContainerIpAddress());
+        connectionFactory.setPort(redis.getMappedPort(REDIS_PORT));
+        connectionFactory.afterPropertiesSet();
+        // 序列化方式与RedisConfig一致
+        redisTemplate = new RedisTemplate<String, Object>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        StringRedisSerializer serializer = new StringRedisSerializer();
+        redisTemplate.setDefaultSerializer(serializer);
+        redisTemplate.setValueSerializer(serializer);
+        redisTemplate.setHashValueSerializer(serializer);
+        redisTemplate.afterPropertiesSet();
+        JedisUtil.init(redisTemplate);
+    }
+
+    @Before
+    public void flushDb() {
+        redisTemplate.execute(new RedisCallback<Object>() {
+            @Override
+            public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                connection.flushDb();
+                return null;
+            }
+        });
+    }
+}
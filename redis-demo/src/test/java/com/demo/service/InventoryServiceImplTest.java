@@ -0,0 +1,164 @@
+package com.demo.service;
+
+import com.demo.RedisTestSupport;
+import com.demo.entity.Reservation;
+import com.demo.entity.ReservationStatus;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InventoryServiceImplTest extends RedisTestSupport {
+
+    private InventoryServiceImpl inventoryService;
+
+    @After
+    public void destroy() {
+        if (inventoryService != null) {
+            inventoryService.destroy();
+        }
+    }
+
+    @Test
+    public void concurrentReservesNeverOversell() throws Exception {
+        inventoryService = newService(0, false);
+        assertNoOversell(inventoryService);
+    }
+
+    @Test
+    public void concurrentReservesNeverOversellWithLocalTokens() throws Exception {
+        inventoryService = newService(0, true);
+        assertNoOversell(inventoryService);
+    }
+
+    @Test
+    public void perUserLimitIsEnforced() {
+        inventoryService = newService(2, false);
+        String sku = newSku();
+        inventoryService.setStock(sku, 10);
+
+        assertEquals(ReservationStatus.SUCCESS, inventoryService.reserve(sku, "u1", 2).getStatus());
+        Reservation exceeded = inventoryService.reserve(sku, "u1", 1);
+        assertEquals(ReservationStatus.LIMIT_EXCEEDED, exceeded.getStatus());
+        assertEquals(Long.valueOf(8), exceeded.getRemaining());
+        assertEquals(ReservationStatus.SUCCESS, inventoryService.reserve(sku, "u2", 2).getStatus());
+        assertEquals(Long.valueOf(6), inventoryService.getStock(sku));
+    }
+
+    @Test
+    public void rollbackReturnsStockAndLimit() {
+        inventoryService = newService(1, false);
+        String sku = newSku();
+        inventoryService.setStock(sku, 1);
+
+        Reservation reservation = inventoryService.reserve(sku, "u1", 1);
+        assertTrue(reservation.isSuccess());
+        assertEquals(ReservationStatus.SOLD_OUT, inventoryService.reserve(sku, "u2", 1).getStatus());
+
+        assertTrue(inventoryService.rollback(sku, reservation.getOrderToken()));
+        assertEquals(Long.valueOf(1), inventoryService.getStock(sku));
+        // 已回滚的订单不能再次回滚或确认
+        assertFalse(inventoryService.rollback(sku, reservation.getOrderToken()));
+        assertFalse(inventoryService.confirm(sku, reservation.getOrderToken()));
+        // 限购额度已归还，售罄标记已清除
+        assertTrue(inventoryService.reserve(sku, "u1", 1).isSuccess());
+        assertEquals(Long.valueOf(0), inventoryService.getStock(sku));
+    }
+
+    @Test
+    public void confirmedOrderCannotBeRolledBack() {
+        inventoryService = newService(1, false);
+        String sku = newSku();
+        inventoryService.setStock(sku, 5);
+
+        Reservation reservation = inventoryService.reserve(sku, "u1", 1);
+        assertTrue(inventoryService.confirm(sku, reservation.getOrderToken()));
+        assertFalse(inventoryService.rollback(sku, reservation.getOrderToken()));
+        assertEquals(Long.valueOf(4), inventoryService.getStock(sku));
+    }
+
+    @Test
+    public void rollbackExpiredOnlyReturnsTimedOutOrders() throws Exception {
+        inventoryService = newService(0, false);
+        String sku = newSku();
+        inventoryService.setStock(sku, 10);
+
+        Reservation expired1 = inventoryService.reserve(sku, "u1", 2);
+        Reservation expired2 = inventoryService.reserve(sku, "u2", 3);
+        Thread.sleep(300);
+        Reservation fresh = inventoryService.reserve(sku, "u3", 1);
+        assertEquals(Long.valueOf(4), inventoryService.getStock(sku));
+
+        assertEquals(2, inventoryService.rollbackExpired(sku, 200));
+        assertEquals(Long.valueOf(9), inventoryService.getStock(sku));
+        assertFalse(inventoryService.confirm(sku, expired1.getOrderToken()));
+        assertFalse(inventoryService.confirm(sku, expired2.getOrderToken()));
+        assertTrue(inventoryService.confirm(sku, fresh.getOrderToken()));
+        assertEquals(0, inventoryService.rollbackExpired(sku, 0));
+    }
+
+    private static void assertNoOversell(final InventoryService inventoryService) throws Exception {
+        final String sku = newSku();
+        int stock = 100;
+        int buyers = 500;
+        inventoryService.setStock(sku, stock);
+
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Reservation>> futures = new ArrayList<Future<Reservation>>(buyers);
+        try {
+            for (int i = 0; i < buyers; i++) {
+                final String userId = "u" + i;
+                futures.add(executor.submit(new Callable<Reservation>() {
+                    @Override
+                    public Reservation call() throws Exception {
+                        start.await();
+                        return inventoryService.reserve(sku, userId, 1);
+                    }
+                }));
+            }
+            start.countDown();
+            int success = 0;
+            for (Future<Reservation> future : futures) {
+                Reservation reservation = future.get();
+                if (reservation.isSuccess()) {
+                    success++;
+                } else {
+                    assertEquals(ReservationStatus.SOLD_OUT, reservation.getStatus());
+                }
+            }
+            assertEquals(stock, success);
+            assertEquals(Long.valueOf(0), inventoryService.getStock(sku));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static InventoryServiceImpl newService(int perUserLimit, boolean localTokens) {
+        InventoryServiceImpl service = new InventoryServiceImpl();
+        ReflectionTestUtils.setField(service, "perUserLimit", perUserLimit);
+        ReflectionTestUtils.setField(service, "localTokensEnabled", localTokens);
+        ReflectionTestUtils.setField(service, "localTokensBlockSize", 7);
+        ReflectionTestUtils.setField(service, "localTokensIdleReturn", 5000L);
+        ReflectionTestUtils.setField(service, "localTokensSoldOutRecheck", 1000L);
+        ReflectionTestUtils.setField(service, "soldOutTtl", 1000L);
+        service.init();
+        return service;
+    }
+
+    private static String newSku() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,85 @@
+package com.demo.util;
+
+import com.demo.RedisTestSupport;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 锁只能由持有者释放，过期后被他人获取时原持有者释放失败且不影响新持有者
+ */
+public class RedisLockTest extends RedisTestSupport {
+
+    private static final String KEY = "lock:test";
+
+    @Test
+    public void releaseOnlyOnce() {
+        LockHandle lock = RedisLock.tryLock(KEY, 10000);
+        assertNotNull(lock);
+        assertNull(RedisLock.tryLock(KEY, 10000));
+        assertTrue(lock.release());
+        assertFalse(lock.release());
+        assertNotNull(RedisLock.tryLock(KEY, 10000));
+    }
+
+    @Test
+    public void expiredLockCannotReleaseNewOwner() throws Exception {
+        LockHandle expired = RedisLock.tryLock(KEY, 100);
+        assertNotNull(expired);
+        Thread.sleep(300);
+        LockHandle owner = RedisLock.tryLock(KEY, 10000);
+        assertNotNull(owner);
+
+        assertFalse(expired.release());
+        assertNull(RedisLock.tryLock(KEY, 10000));
+        assertTrue(owner.release());
+    }
+
+    @Test
+    public void expiredWriteLockCannotReleaseNewOwner() throws Exception {
+        // 两个实例的token不同，相当于两个节点
+        RedisReadWriteLock expired = new RedisReadWriteLock(KEY, 100);
+        RedisReadWriteLock owner = new RedisReadWriteLock(KEY, 10000);
+        assertTrue(expired.writeLock().tryLock(0));
+        assertFalse(owner.writeLock().tryLock(0));
+        Thread.sleep(300);
+        assertTrue(owner.writeLock().tryLock(0));
+
+        assertFalse(expired.writeLock().unlock());
+        assertFalse(new RedisReadWriteLock(KEY, 10000).readLock().tryLock(0));
+        assertTrue(owner.writeLock().unlock());
+        assertTrue(new RedisReadWriteLock(KEY, 10000).readLock().tryLock(0));
+    }
+
+    @Test
+    public void readersHaveTheirOwnLease() throws Exception {
+        RedisReadWriteLock expired = new RedisReadWriteLock(KEY, 100);
+        RedisReadWriteLock reader = new RedisReadWriteLock(KEY, 10000);
+        RedisReadWriteLock writer = new RedisReadWriteLock(KEY, 10000);
+        assertTrue(reader.readLock().tryLock(0));
+        assertTrue(expired.readLock().tryLock(0));
+        Thread.sleep(300);
+
+        // 过期的读者不能延长其他读者的租期，也不影响其他读者
+        assertFalse(expired.readLock().unlock());
+        assertFalse(writer.writeLock().tryLock(0));
+        assertTrue(reader.readLock().unlock());
+        assertTrue(writer.writeLock().tryLock(0));
+        assertTrue(writer.writeLock().unlock());
+    }
+
+    @Test
+    public void deadReaderDoesNotBlockWriter() throws Exception {
+        RedisReadWriteLock expired = new RedisReadWriteLock(KEY, 100);
+        RedisReadWriteLock writer = new RedisReadWriteLock(KEY, 10000);
+        assertTrue(expired.readLock().tryLock(0));
+        assertFalse(writer.writeLock().tryLock(0));
+        Thread.sleep(300);
+
+        assertTrue(writer.writeLock().tryLock(0));
+        assertTrue(writer.writeLock().unlock());
+    }
+}